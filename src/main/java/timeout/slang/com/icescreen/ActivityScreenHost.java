@@ -0,0 +1,107 @@
+package timeout.slang.com.icescreen;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.View;
+
+/**
+ * ScreenHost that displays screens in an Activity, one is created each time the manager is handed
+ * a new Activity
+ */
+public class ActivityScreenHost implements ScreenHost {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Main thread handler, outlives the Activity so in flight work can still get back to main
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Activity we display in, null once detached
+     */
+    private Activity mActivity;
+
+    /*------------------------------------------------------------------------------------------
+     * Constructor
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * @param activity      Activity to display in
+     */
+    public ActivityScreenHost(Activity activity) {
+        mActivity = activity;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * From ScreenHost
+     ------------------------------------------------------------------------------------------*/
+
+    public Context getContext() {
+        return mActivity;
+    }
+
+    public boolean isMainThread() {
+        return Thread.currentThread() == Looper.getMainLooper().getThread();
+    }
+
+    public void post(Runnable runnable, long delayMs) {
+        if(delayMs > 0) {
+            mHandler.postDelayed(runnable, delayMs);
+        } else {
+            mHandler.post(runnable);
+        }
+    }
+
+    public void removeCallbacks(Runnable runnable) {
+        mHandler.removeCallbacks(runnable);
+    }
+
+    public void postFrameCallback(Choreographer.FrameCallback callback) {
+        Choreographer.getInstance().postFrameCallback(callback);
+    }
+
+    public void removeFrameCallback(Choreographer.FrameCallback callback) {
+        Choreographer.getInstance().removeFrameCallback(callback);
+    }
+
+    public void addIdleHandler(MessageQueue.IdleHandler handler) {
+        Looper.myQueue().addIdleHandler(handler);
+    }
+
+    public void removeIdleHandler(MessageQueue.IdleHandler handler) {
+        Looper.myQueue().removeIdleHandler(handler);
+    }
+
+    public void attach(ScreenTransitionEngine transitions) {
+        transitions.attach(mActivity);
+    }
+
+    public void detach() {
+        mActivity = null;
+    }
+
+    public View inflate(ScreenController screen) {
+        // Trees that might be carried into the next Activity get a context that can be re-pointed
+        if(screen.getAbsorbedConfigChanges() != 0) {
+            Context context = new MutableContextWrapper(mActivity);
+            return screen.createView(LayoutInflater.from(mActivity).cloneInContext(context));
+        }
+        return screen.createView(LayoutInflater.from(mActivity));
+    }
+
+    public LayoutInflater getWorkerInflater(ScreenController screen) {
+        // Inflaters aren't thread safe so the worker gets its own copy, with a context that can
+        // be re-pointed if the tree might be carried into the next Activity
+        Context context = screen.getAbsorbedConfigChanges() != 0 ? new MutableContextWrapper(mActivity) : mActivity;
+        return LayoutInflater.from(mActivity).cloneInContext(context);
+    }
+}
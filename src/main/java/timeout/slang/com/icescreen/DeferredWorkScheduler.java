@@ -0,0 +1,317 @@
+package timeout.slang.com.icescreen;
+
+import android.os.MessageQueue;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Work screens have put off until after the first frame, after the transition or until main is
+ * idle, so it doesn't compete with the first frames of an animation. Work that's ready is run a
+ * frame at a time within a time budget so a pile of it doesn't turn into a hitch. Nothing runs
+ * while there's no host. Main thread only
+ */
+public class DeferredWorkScheduler {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Run once the first frame after the work was deferred has been drawn
+     */
+    public static final int AFTER_FIRST_FRAME = 0;
+
+    /**
+     * Run once the transition in flight (if any) has finished
+     */
+    public static final int AFTER_TRANSITION = 1;
+
+    /**
+     * Run when main has nothing else to do
+     */
+    public static final int AT_IDLE = 2;
+
+    /**
+     * Default time per frame spent running deferred work
+     */
+    public static final long DEFAULT_FRAME_BUDGET_NANOS = 4000000;
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Waiting for their moment
+     */
+    private final WorkQueue mAfterFirstFrame = new WorkQueue();
+    private final WorkQueue mAfterTransition = new WorkQueue();
+    private final WorkQueue mAtIdle = new WorkQueue();
+
+    /**
+     * Due, run a budget's worth per frame
+     */
+    private final WorkQueue mReady = new WorkQueue();
+
+    /**
+     * Where frame callbacks, posts and idle handlers go, null while between contexts
+     */
+    private ScreenHost mHost;
+
+    private long mFrameBudgetNanos = DEFAULT_FRAME_BUDGET_NANOS;
+
+    private boolean mTransitionRunning;
+
+    /**
+     * True while the corresponding callback is registered with the host
+     */
+    private boolean mFrameMarkerScheduled;
+    private boolean mDrainScheduled;
+    private boolean mIdleScheduled;
+
+    /**
+     * Frame callback that marks the next frame - once it has been drawn, work waiting on the
+     * first frame is due
+     */
+    private final Choreographer.FrameCallback mFrameMarker = new Choreographer.FrameCallback() {
+        public void doFrame(long frameTimeNanos) {
+            // Frame callbacks run before the frame is drawn, posting lands after it
+            mHost.post(mFirstFrameDrawn, 0);
+        }
+    };
+
+    private final Runnable mFirstFrameDrawn = new Runnable() {
+        public void run() {
+            mFrameMarkerScheduled = false;
+            mAfterFirstFrame.moveTo(mReady);
+            scheduleDrain();
+        }
+    };
+
+    /**
+     * Runs a frame's budget of ready work
+     */
+    private final Choreographer.FrameCallback mDrain = new Choreographer.FrameCallback() {
+        public void doFrame(long frameTimeNanos) {
+            mDrainScheduled = false;
+            runWithinBudget(mReady);
+            scheduleDrain();
+        }
+    };
+
+    /**
+     * Runs a budget's worth of idle work each time main runs out of messages
+     */
+    private final MessageQueue.IdleHandler mIdle = new MessageQueue.IdleHandler() {
+        public boolean queueIdle() {
+            if(mHost == null) {
+                mIdleScheduled = false;
+                return false;
+            }
+            runWithinBudget(mAtIdle);
+            mIdleScheduled = !mAtIdle.isEmpty();
+            return mIdleScheduled;
+        }
+    };
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Put work off
+     * @param owner     Screen the work belongs to, it's dropped if the screen is removed
+     * @param when      AFTER_FIRST_FRAME, AFTER_TRANSITION or AT_IDLE
+     * @param work      Work to run on main
+     */
+    public void schedule(ScreenController owner, int when, Runnable work) {
+        switch(when) {
+            case AFTER_FIRST_FRAME:
+                mAfterFirstFrame.add(owner, work);
+                break;
+            case AFTER_TRANSITION:
+                if(mTransitionRunning) {
+                    mAfterTransition.add(owner, work);
+                } else {
+                    mReady.add(owner, work);
+                }
+                break;
+            case AT_IDLE:
+                mAtIdle.add(owner, work);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown deferral: " + when);
+        }
+        scheduleCallbacks();
+    }
+
+    /**
+     * Drop everything a screen put off
+     * @param owner     Screen whose work should be dropped
+     */
+    public void cancel(ScreenController owner) {
+        mAfterFirstFrame.remove(owner);
+        mAfterTransition.remove(owner);
+        mAtIdle.remove(owner);
+        mReady.remove(owner);
+    }
+
+    /**
+     * @param nanos     Time per frame spent running deferred work. At least one piece of work
+     *                  runs per frame however long it takes
+     */
+    public void setFrameBudget(long nanos) {
+        mFrameBudgetNanos = nanos;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Package Methods - Called by ScreenManager
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Start running work through a host, anything that came due while we had none is picked up
+     * @param host      Host to post through
+     */
+    void attach(ScreenHost host) {
+        mHost = host;
+        scheduleCallbacks();
+    }
+
+    /**
+     * Stop running work, it's kept until the next attach()
+     */
+    void detach() {
+        if(mHost != null) {
+            mHost.removeFrameCallback(mFrameMarker);
+            mHost.removeCallbacks(mFirstFrameDrawn);
+            mHost.removeFrameCallback(mDrain);
+            mHost.removeIdleHandler(mIdle);
+        }
+        mHost = null;
+        mTransitionRunning = false;
+        mFrameMarkerScheduled = false;
+        mDrainScheduled = false;
+        mIdleScheduled = false;
+    }
+
+    void onTransitionStarted() {
+        mTransitionRunning = true;
+    }
+
+    void onTransitionFinished() {
+        mTransitionRunning = false;
+        mAfterTransition.moveTo(mReady);
+        scheduleDrain();
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    private void scheduleCallbacks() {
+        if(mHost == null) {
+            return;
+        }
+        if(!mTransitionRunning) {
+            mAfterTransition.moveTo(mReady);
+        }
+        if(!mFrameMarkerScheduled && !mAfterFirstFrame.isEmpty()) {
+            mFrameMarkerScheduled = true;
+            mHost.postFrameCallback(mFrameMarker);
+        }
+        if(!mIdleScheduled && !mAtIdle.isEmpty()) {
+            mIdleScheduled = true;
+            mHost.addIdleHandler(mIdle);
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if(mHost != null && !mDrainScheduled && !mReady.isEmpty()) {
+            mDrainScheduled = true;
+            mHost.postFrameCallback(mDrain);
+        }
+    }
+
+    /*
+     * Run work off the front of a queue until the frame budget is spent
+     */
+    private void runWithinBudget(WorkQueue queue) {
+        long start = System.nanoTime();
+        do {
+            Runnable work = queue.poll();
+            if(work == null) {
+                return;
+            }
+            work.run();
+        } while(mHost != null && System.nanoTime() - start < mFrameBudgetNanos);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: WorkQueue
+     *
+     * Description:
+     * FIFO of work alongside the screens it belongs to. Backed by lists that are kept between
+     * uses so steady state doesn't allocate
+     ------------------------------------------------------------------------------------------*/
+
+    private static class WorkQueue {
+
+        private final ArrayList<ScreenController> mOwners = new ArrayList<>();
+
+        private final ArrayList<Runnable> mWork = new ArrayList<>();
+
+        /**
+         * Index of the next item, everything before it has been polled
+         */
+        private int mHead;
+
+        private void add(ScreenController owner, Runnable work) {
+            mOwners.add(owner);
+            mWork.add(work);
+        }
+
+        private Runnable poll() {
+            if(mHead == mWork.size()) {
+                return null;
+            }
+            Runnable work = mWork.get(mHead);
+            mOwners.set(mHead, null);
+            mWork.set(mHead, null);
+            mHead++;
+            if(mHead == mWork.size()) {
+                mOwners.clear();
+                mWork.clear();
+                mHead = 0;
+            }
+            return work;
+        }
+
+        private void remove(ScreenController owner) {
+            for(int i = mWork.size() - 1; i >= mHead; i--) {
+                if(mOwners.get(i) == owner) {
+                    mOwners.remove(i);
+                    mWork.remove(i);
+                }
+            }
+            if(mHead == mWork.size()) {
+                mOwners.clear();
+                mWork.clear();
+                mHead = 0;
+            }
+        }
+
+        private void moveTo(WorkQueue other) {
+            for(int i = mHead; i < mWork.size(); i++) {
+                other.add(mOwners.get(i), mWork.get(i));
+            }
+            mOwners.clear();
+            mWork.clear();
+            mHead = 0;
+        }
+
+        private boolean isEmpty() {
+            return mHead == mWork.size();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package timeout.slang.com.icescreen;
+
+import android.content.Context;
+import android.os.MessageQueue;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * ScreenHost with no Activity and no views, for exercising and profiling the stack logic on a
+ * plain JVM. Screens are never inflated so transitions don't run, and onSetActive() is called as
+ * soon as a screen reaches the top. The thread that creates the host is treated as main, and
+ * anything posted (or added as a frame callback or idle handler) waits until runPending(). Like the
+ * real thing, workers can post
+ */
+public class HeadlessScreenHost implements ScreenHost {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Thread that plays the part of main
+     */
+    private final Thread mMainThread = Thread.currentThread();
+
+    /**
+     * Posted runnables waiting for runPending(), delays are ignored. Guarded by itself as workers
+     * post too
+     */
+    private final ArrayList<Runnable> mPending = new ArrayList<>();
+
+    /**
+     * Frame callbacks waiting for the next runPending()
+     */
+    private final ArrayList<Choreographer.FrameCallback> mFrameCallbacks = new ArrayList<>();
+
+    /**
+     * Frame callbacks being run, anything they post goes to the next frame
+     */
+    private final ArrayList<Choreographer.FrameCallback> mFrame = new ArrayList<>();
+
+    /**
+     * Idle handlers, each run once per runPending()
+     */
+    private final ArrayList<MessageQueue.IdleHandler> mIdleHandlers = new ArrayList<>();
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Run everything posted so far, including anything posted while running, then one frame's
+     * worth of frame callbacks followed by the posts they make, then give each idle handler one go
+     * as the queue is now idle
+     * @return      Number of runnables and frame callbacks run
+     */
+    public int runPending() {
+        int run = runPosted();
+
+        mFrame.addAll(mFrameCallbacks);
+        mFrameCallbacks.clear();
+        long frameTimeNanos = System.nanoTime();
+        for(int i = 0; i < mFrame.size(); i++) {
+            mFrame.get(i).doFrame(frameTimeNanos);
+            run++;
+        }
+        mFrame.clear();
+        run += runPosted();
+
+        for(int i = mIdleHandlers.size() - 1; i >= 0; i--) {
+            if(!mIdleHandlers.get(i).queueIdle()) {
+                mIdleHandlers.remove(i);
+            }
+        }
+        return run;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * From ScreenHost
+     ------------------------------------------------------------------------------------------*/
+
+    public Context getContext() {
+        return null;
+    }
+
+    public boolean isMainThread() {
+        return Thread.currentThread() == mMainThread;
+    }
+
+    public void post(Runnable runnable, long delayMs) {
+        synchronized(mPending) {
+            mPending.add(runnable);
+        }
+    }
+
+    public void removeCallbacks(Runnable runnable) {
+        synchronized(mPending) {
+            while(mPending.remove(runnable)) {
+                // Remove every occurrence
+            }
+        }
+    }
+
+    public void postFrameCallback(Choreographer.FrameCallback callback) {
+        mFrameCallbacks.add(callback);
+    }
+
+    public void removeFrameCallback(Choreographer.FrameCallback callback) {
+        while(mFrameCallbacks.remove(callback)) {
+            // Remove every occurrence
+        }
+    }
+
+    public void addIdleHandler(MessageQueue.IdleHandler handler) {
+        mIdleHandlers.add(handler);
+    }
+
+    public void removeIdleHandler(MessageQueue.IdleHandler handler) {
+        mIdleHandlers.remove(handler);
+    }
+
+    public void attach(ScreenTransitionEngine transitions) { }
+
+    public void detach() { }
+
+    public View inflate(ScreenController screen) {
+        return null;
+    }
+
+    public LayoutInflater getWorkerInflater(ScreenController screen) {
+        return null;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    private int runPosted() {
+        int run = 0;
+        while(true) {
+            Runnable runnable;
+            synchronized(mPending) {
+                if(mPending.isEmpty()) {
+                    return run;
+                }
+                runnable = mPending.remove(0);
+            }
+            runnable.run();
+            run++;
+        }
+    }
+}
@@ -8,12 +8,20 @@ import android.content.Loader;
  */
 public class LoaderScreenManager extends Loader<ScreenManager> {
 
+    /**
+     * Created on the first start and handed back on every one after, the stack lives in here
+     */
+    private ScreenManager mScreenManager;
+
     public LoaderScreenManager(Context context) {
         super(context);
     }
 
     @Override
     protected void onStartLoading() {
-        deliverResult(new ScreenManager());
+        if(mScreenManager == null) {
+            mScreenManager = new ScreenManager();
+        }
+        deliverResult(mScreenManager);
     }
 }
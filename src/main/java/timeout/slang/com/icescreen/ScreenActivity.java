@@ -28,6 +28,21 @@ public abstract class ScreenActivity extends Activity {
      */
     private ScreenManager mScreenManager;
 
+    /**
+     * True while mScreenManager is displaying in this Activity
+     */
+    private boolean mAttached;
+
+    /**
+     * Instance state we were created with, used to restore the stack after process death
+     */
+    private Bundle mSavedState;
+
+    /**
+     * When onCreate() started, used to time how long the ScreenManager took to be attached
+     */
+    private long mCreateStartNanos;
+
     /*------------------------------------------------------------------------------------------
      * From AppCompatActivity
      ------------------------------------------------------------------------------------------*/
@@ -35,6 +50,15 @@ public abstract class ScreenActivity extends Activity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreateStartNanos = System.nanoTime();
+        mSavedState = savedInstanceState;
+
+        // Hand the manager across directly - it's available straight away, no Loader round trip
+        if(!useLoaderRetention()) {
+            ScreenManager manager = (ScreenManager) getLastNonConfigurationInstance();
+            setScreenManager(manager != null ? manager : createScreenManager());
+            return;
+        }
 
         // Create or get loader
         getLoaderManager().initLoader(LOADER_SCREEN_MANAGER, null, new LoaderManager.LoaderCallbacks<ScreenManager>() {
@@ -55,6 +79,14 @@ public abstract class ScreenActivity extends Activity {
         });
     }
 
+    /**
+     * Keep the ScreenManager across a configuration change when we're not using the Loader
+     */
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        return useLoaderRetention() ? null : mScreenManager;
+    }
+
     /**
      * Capture back press
      */
@@ -70,14 +102,57 @@ public abstract class ScreenActivity extends Activity {
     }
 
     /**
-     * Called by framework when Activity is about to be destroyed, inform screen manager
+     * Save the screen stack in case the process is killed
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if(mScreenManager != null) {
+            mScreenManager.saveState(outState);
+        }
+    }
+
+    /**
+     * Pass memory pressure onto the screen manager so it can shed views / screen state
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if(mScreenManager != null) {
+            mScreenManager.onTrimMemory(level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if(mScreenManager != null) {
+            mScreenManager.onLowMemory();
+        }
+    }
+
+    /**
+     * Let the screen manager go once we know this Activity is going away. An ordinary pause (a
+     * dialog, another Activity on top) keeps it attached so the same screens come back on resume
      */
     @Override
     protected void onPause() {
-        mScreenManager.onPreContextChange();
+        if(isChangingConfigurations() || isFinishing()) {
+            detachScreenManager();
+        }
         super.onPause();
     }
 
+    /**
+     * Destroyed without finishing or changing configuration (e.g. reclaimed while stopped) - make
+     * sure the screen manager isn't left holding us
+     */
+    @Override
+    protected void onDestroy() {
+        detachScreenManager();
+        super.onDestroy();
+    }
+
     /*------------------------------------------------------------------------------------------
      * Protected Methods
      ------------------------------------------------------------------------------------------*/
@@ -86,17 +161,73 @@ public abstract class ScreenActivity extends Activity {
         return new LoaderScreenManager(this);
     }
 
+    /**
+     * Create the ScreenManager when there isn't one to carry over
+     * @return      New ScreenManager
+     */
+    protected ScreenManager createScreenManager() {
+        return new ScreenManager();
+    }
+
+    /**
+     * Return true to retain the ScreenManager in a Loader (the original behaviour) rather than
+     * handing it across as the non-configuration instance. The Loader path only delivers the
+     * manager once the Activity starts, so screens are shown later
+     * @return      True to use the Loader
+     */
+    protected boolean useLoaderRetention() {
+        return false;
+    }
+
+    /**
+     * Called once the ScreenManager has been attached and the top screen is displayed, override to
+     * compare startup cost of the two retention paths
+     * @param elapsedNanos  Time from onCreate() to the top screen being displayed
+     * @param loader        True if the manager came through the Loader
+     */
+    protected void onScreenManagerAttached(long elapsedNanos, boolean loader) { }
+
     protected void setScreenManager(ScreenManager screenMan) {
+        // Loader re-delivering on start, we're already displaying through it
+        if(screenMan == mScreenManager && mAttached) {
+            return;
+        }
         mScreenManager = screenMan;
+        mAttached = true;
+
+        // New ScreenManager but we've got saved state - process was killed, restore the stack
+        boolean restored = false;
+        if(!mScreenManager.isInitialised() && mSavedState != null) {
+            restored = mScreenManager.restoreState(mSavedState);
+        }
+        mSavedState = null;
 
         // Pass this context onto screen manager
         mScreenManager.onContextChange(this);
 
         // Initialise the ScreenManager (if it hasn't already been)
         if(!mScreenManager.isInitialised()) {
-            onInitialiseScreenManager(mScreenManager);
+            if(!restored) {
+                onInitialiseScreenManager(mScreenManager);
+            }
             mScreenManager.initialise();
         }
+
+        onScreenManagerAttached(System.nanoTime() - mCreateStartNanos, useLoaderRetention());
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /*
+     * Tell the screen manager this context is going, once per time it was attached
+     */
+    private void detachScreenManager() {
+        if(mAttached) {
+            mAttached = false;
+            mScreenManager.onPreContextChange();
+        }
     }
 
     /*------------------------------------------------------------------------------------------
@@ -1,11 +1,17 @@
 package timeout.slang.com.icescreen;
 
 import android.content.Context;
+import android.os.Parcelable;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.animation.AlphaAnimation;
 import android.view.animation.Animation;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public abstract class ScreenController {
 
     /*------------------------------------------------------------------------------------------
@@ -23,6 +29,48 @@ public abstract class ScreenController {
      */
     private ScreenManager mScreenManager;
 
+    /**
+     * Default animations, created on first use and reused for every transition after that
+     */
+    private Animation mFadeIn;
+    private Animation mFadeOut;
+
+    /**
+     * State handed over by onReleaseState(), held until the screen is revealed again
+     */
+    private ScreenControllerData mReleasedState;
+
+    /**
+     * Hierarchy state of the last view tree we threw away, restored into the next one we create.
+     * Kept until that tree is shown
+     */
+    private SparseArray<Parcelable> mViewState;
+
+    /**
+     * True while our tree hasn't been shown since mViewState was taken from or restored into it,
+     * so it can't have changed and doesn't need snapshotting again
+     */
+    private boolean mViewStateCurrent;
+
+    /**
+     * Views handed out by obtainView() keyed by layout id, released to the pool with our tree
+     */
+    private SparseArray<ArrayList<View>> mObtainedViews;
+
+    /**
+     * Screen that pushed us for a result and the result we'll hand it when we're removed, both
+     * null if we weren't pushed for one. The result is kept between pushes
+     */
+    private ScreenController mResultTarget;
+    private ScreenResult mResult;
+
+    /**
+     * Result handed to us, held (object value included) until we're revealed or leave the stack.
+     * Kept between deliveries with the value cleared
+     */
+    private ScreenResult mReceivedResult;
+    private boolean mHasReceivedResult;
+
     /*------------------------------------------------------------------------------------------
      * Public Methods
      ------------------------------------------------------------------------------------------*/
@@ -54,11 +102,152 @@ public abstract class ScreenController {
         return mScreenManager.getContext();
     }
 
+    /**
+     * Put work off so it doesn't compete with the first frames of a transition, e.g. binding data
+     * or kicking off requests from onSetActive(). Ready work is run a frame at a time within a
+     * budget, and dropped if this screen leaves the stack first. Main thread only
+     * @param when      DeferredWorkScheduler.AFTER_FIRST_FRAME, AFTER_TRANSITION or AT_IDLE
+     * @param work      Work to run on main
+     */
+    protected void defer(int when, Runnable work) {
+        mScreenManager.defer(this, when, work);
+    }
+
+    /**
+     * Get a view for a sub-layout that many screens share (toolbar, row, card...). Recycled from
+     * the ScreenManager's pool if another screen shed one, otherwise inflated. A recycled view
+     * keeps whatever was bound to it so bind everything. Views obtained here go back to the pool
+     * by themselves when this screen's tree is thrown away. Called off main it always inflates
+     * and the view isn't recycled
+     * @param inflater  Inflater handed to onCreateView()
+     * @param layoutId  Layout resource to inflate
+     * @param parent    Parent the view will be added to, only used for layout params
+     * @return          The view, not yet attached to parent
+     */
+    protected View obtainView(LayoutInflater inflater, int layoutId, ViewGroup parent) {
+        // Pooled views are bound straight to the Activity so can't be carried across a change
+        View view = mScreenManager != null && getAbsorbedConfigChanges() == 0
+                ? mScreenManager.obtainPooledView(layoutId) : null;
+        if(view == null) {
+            view = inflater.inflate(layoutId, parent, false);
+        }
+
+        // Only trees built on main are tracked, a worker's (pushScreenAsync()) can be thrown away
+        // before main ever sees it and the records aren't thread safe
+        if(mScreenManager != null && !mScreenManager.isMainThread()) {
+            return view;
+        }
+        if(mObtainedViews == null) {
+            mObtainedViews = new SparseArray<>();
+        }
+        ArrayList<View> views = mObtainedViews.get(layoutId);
+        if(views == null) {
+            views = new ArrayList<>();
+            mObtainedViews.put(layoutId, views);
+        }
+        views.add(view);
+        return view;
+    }
+
+    /**
+     * Hand a view from obtainView() back to the pool before the rest of the tree goes, e.g. when a
+     * row is removed
+     * @param layoutId  Layout resource the view was obtained with
+     * @param view      The view, removed from its parent
+     */
+    protected void releaseView(int layoutId, View view) {
+        ArrayList<View> views = mObtainedViews != null ? mObtainedViews.get(layoutId) : null;
+        if(views != null) {
+            views.remove(view);
+        }
+        if(mScreenManager != null) {
+            mScreenManager.releasePooledView(layoutId, view);
+        }
+    }
+
+    /**
+     * Run a task on the ScreenManager's workers, scoped to this screen. It's cancelled if this
+     * screen is removed from the stack, survives configuration changes and its result is delivered
+     * on main once there's a live context
+     * @param task      Task to run
+     * @return          The task, so it can be cancelled
+     */
+    protected <T> ScreenControllerService.Task<T> submit(ScreenControllerService.Task<T> task) {
+        return mScreenManager.getService().submit(this, task);
+    }
+
+    /**
+     * Return true if onCreateView() only inflates and binds plain views, so it's safe for
+     * ScreenManager.pushScreenAsync() to call it on a worker thread. Don't touch getView(),
+     * getContext() or anything needing a Looper from onCreateView() if you return true
+     * @return      True if this screen can be inflated off the main thread
+     */
+    protected boolean canInflateOffMainThread() {
+        return false;
+    }
+
+    /**
+     * Screens the user is likely to go to next from this one. Once this screen is on top and its
+     * transition has finished, their views are inflated while the main thread is idle so pushing
+     * them doesn't have to. Only pays off if the same instances returned here get pushed
+     * @return      Likely next screens, most likely first, or null for none
+     */
+    protected List<? extends ScreenController> getLikelySuccessors() {
+        return null;
+    }
+
+    /**
+     * Push a screen whose result comes back to onScreenResult() once it's removed and this screen
+     * is revealed again. Dropped if this screen leaves the stack first
+     * @param screen        Screen to push
+     * @param requestCode   Handed back with the result to tell requests apart
+     */
+    protected void pushScreenForResult(ScreenController screen, int requestCode) {
+        mScreenManager.pushScreenForResult(this, screen, requestCode);
+    }
+
+    /**
+     * Set the result handed to the screen that pushed us when we're removed. Ignored if we weren't
+     * pushed for a result
+     * @param resultCode    e.g. ScreenResult.RESULT_OK
+     */
+    protected void setResult(int resultCode) {
+        setResult(resultCode, 0, 0, null);
+    }
+
+    protected void setResult(int resultCode, long value) {
+        setResult(resultCode, value, 0, null);
+    }
+
+    protected void setResult(int resultCode, boolean value) {
+        setResult(resultCode, value ? 1 : 0, 0, null);
+    }
+
+    protected void setResult(int resultCode, double value) {
+        setResult(resultCode, 0, value, null);
+    }
+
+    /**
+     * @param resultCode    e.g. ScreenResult.RESULT_OK
+     * @param value         Held until the result is delivered or dropped, don't pass Views or
+     *                      Contexts
+     */
+    protected void setResult(int resultCode, Object value) {
+        setResult(resultCode, 0, 0, value);
+    }
+
     /**
      * Called after onCreateView - setConfiguration
      */
     protected void onSetActive() { }
 
+    /**
+     * A screen pushed with pushScreenForResult() has been removed. Called after onSetActive() once
+     * we're revealed, or once the context is back if it happened during a config change
+     * @param result    The result, only valid for the duration of the call
+     */
+    protected void onScreenResult(ScreenResult result) { }
+
     /*------------------------------------------------------------------------------------------
      * Protected Methods - Called by ScreenManager
      ------------------------------------------------------------------------------------------*/
@@ -79,16 +268,301 @@ public abstract class ScreenController {
         mScreenManager = screenManager;
     }
 
+    /**
+     * Called on the top screen right before the containing Activity goes away. Drop anything tied
+     * to the current context here
+     */
+    protected void onPreConfigurationChange() { }
+
+    /**
+     * Configuration changes this screen's layout doesn't depend on, e.g.
+     * ActivityInfo.CONFIG_ORIENTATION | ActivityInfo.CONFIG_SCREEN_SIZE for a screen that lays out
+     * the same way in both orientations. If this screen is on top when only these change, its
+     * existing view tree is moved into the new Activity rather than onCreateView() being called
+     * again. Views are created with a context that's re-pointed at the new Activity, but anything
+     * else holding the old one (listeners, adapters) must be dropped in onPreConfigurationChange()
+     * @return      Mask of ActivityInfo.CONFIG_ flags, 0 (the default) to always re-create
+     */
+    protected int getAbsorbedConfigChanges() {
+        return 0;
+    }
+
+    /**
+     * Rough size in bytes of the member data this screen holds. Used by the ScreenManager's memory
+     * budget to decide when deeper screens should release their state
+     * @return      Estimated size, 0 if unknown
+     */
+    protected long getRetainedMemoryEstimate() {
+        return 0;
+    }
+
+    /**
+     * Called when this screen is buried in the stack and memory is tight. Write whatever's needed
+     * to rebuild into data and drop the rest of your member data
+     * @param data      Data to write state into
+     * @return          True if state was released, false if this screen can't release anything
+     */
+    protected boolean onReleaseState(ScreenControllerData data) {
+        return false;
+    }
+
+    /**
+     * Called before this screen's view is created if it released its state while buried
+     * @param data      Data written by onReleaseState()
+     */
+    protected void onRestoreState(ScreenControllerData data) { }
+
+    /**
+     * Called when the Activity saves its instance state, in case the process is killed. Write
+     * whatever's needed to rebuild this screen into data, it's handed back through
+     * onRestoreState() on a new instance (created with the public no-arg constructor) when the
+     * screen is next revealed. Keep it small, it counts towards the Binder transaction limit
+     * @param data      Data to write state into
+     */
+    protected void onSaveState(ScreenControllerData data) { }
+
+    /**
+     * @return      State to persist for this screen, whatever it released if it's buried
+     */
+    ScreenControllerData saveState() {
+        ScreenControllerData data = mReleasedState;
+        if(data == null) {
+            data = new ScreenControllerData();
+            onSaveState(data);
+        }
+        return data;
+    }
+
+    /**
+     * Give a freshly restored screen the state it saved, handed over when it's revealed
+     * @param data      Saved state, may be null
+     */
+    void setReleasedState(ScreenControllerData data) {
+        mReleasedState = data;
+    }
+
+    /**
+     * @return      Hierarchy state of our last snapshot to persist, null if there isn't any
+     */
+    SparseArray<Parcelable> getViewState() {
+        return mViewState;
+    }
+
+    /**
+     * Give a freshly restored screen the hierarchy state it persisted
+     * @param state     State from getViewState(), may be null
+     */
+    void setViewState(SparseArray<Parcelable> state) {
+        mViewState = state;
+        mViewStateCurrent = false;
+    }
+
+    /**
+     * Our tree is being thrown away, hand everything obtainView() gave us back to the
+     * ScreenManager's pool. Views that don't belong to its current context are dropped
+     * @param recycle   False to just forget them (their context is going)
+     */
+    void releaseObtainedViews(boolean recycle) {
+        if(mObtainedViews == null) {
+            return;
+        }
+        for(int i = 0, n = mObtainedViews.size(); i < n; i++) {
+            ArrayList<View> views = mObtainedViews.valueAt(i);
+            if(recycle && mScreenManager != null) {
+                for(int j = 0, m = views.size(); j < m; j++) {
+                    mScreenManager.releasePooledView(mObtainedViews.keyAt(i), views.get(j));
+                }
+            }
+            views.clear();
+        }
+    }
+
+    /**
+     * Snapshot the hierarchy state (scroll positions, input, etc) of a view tree that's about to
+     * be thrown away. Only views with ids are saved
+     * @param view      Root of this screen's tree
+     */
+    void saveViewState(View view) {
+        // Not shown since the last snapshot was taken or restored, nothing can have changed
+        if(mViewStateCurrent) {
+            return;
+        }
+        takeViewState(view);
+        mViewStateCurrent = true;
+    }
+
+    /**
+     * Snapshot the hierarchy state of the tree on display so it can be persisted. It can still
+     * change, so the next saveViewState() takes a fresh one
+     * @param view      Root of this screen's tree
+     */
+    void saveShownViewState(View view) {
+        takeViewState(view);
+        mViewStateCurrent = false;
+    }
+
+    /**
+     * Restore the last snapshot (if any) into a newly created view tree
+     * @param view      Root of this screen's new tree
+     */
+    void restoreViewState(View view) {
+        if(view == null) {
+            return;
+        }
+        if(mViewState != null) {
+            view.restoreHierarchyState(mViewState);
+        }
+        mViewStateCurrent = true;
+    }
+
+    /**
+     * Our tree has been displayed and may be changed from here on, the snapshot is done with
+     */
+    void onViewShown() {
+        mViewState = null;
+        mViewStateCurrent = false;
+    }
+
+    /**
+     * Ask the screen to release its state
+     * @return      True if it did
+     */
+    boolean releaseState() {
+        if(mReleasedState != null) {
+            return true;
+        }
+        ScreenControllerData data = new ScreenControllerData();
+        if(onReleaseState(data)) {
+            mReleasedState = data;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hand released state (if any) back to the screen
+     */
+    void restoreState() {
+        if(mReleasedState != null) {
+            ScreenControllerData data = mReleasedState;
+            mReleasedState = null;
+            onRestoreState(data);
+        }
+    }
+
+    /**
+     * @return      True if the screen has released its state and not been revealed since
+     */
+    boolean isStateReleased() {
+        return mReleasedState != null;
+    }
+
+    /**
+     * We're being pushed for a result, any result from a previous push is forgotten
+     * @param target        Screen to hand the result to
+     * @param requestCode   Handed back with the result
+     */
+    void setResultTarget(ScreenController target, int requestCode) {
+        if(mResult == null) {
+            mResult = new ScreenResult();
+        }
+        mResult.reset(requestCode);
+        mResultTarget = target;
+    }
+
+    /**
+     * We've left the stack - hand our result to the screen that wants it
+     * @return      Screen that was handed a result, null if none wanted one
+     */
+    ScreenController sendResult() {
+        ScreenController target = mResultTarget;
+        mResultTarget = null;
+        if(target != null) {
+            target.receiveResult(mResult);
+            mResult.clear();
+        }
+        return target;
+    }
+
+    /**
+     * Forget any result waiting to be delivered to us
+     */
+    void dropResult() {
+        mHasReceivedResult = false;
+        if(mReceivedResult != null) {
+            mReceivedResult.clear();
+        }
+    }
+
+    /**
+     * Call onScreenResult() if a result is waiting
+     */
+    void deliverResult() {
+        if(!mHasReceivedResult) {
+            return;
+        }
+        mHasReceivedResult = false;
+        onScreenResult(mReceivedResult);
+        mReceivedResult.clear();
+    }
+
+    /**
+     * Called by the ScreenManager when it needs a new view for this screen
+     * @param inflater      Inflater to use to create
+     * @return              Created view
+     */
+    View createView(LayoutInflater inflater) {
+        return onCreateView(inflater);
+    }
+
+    /**
+     * Animation run on this screen's view when it's pushed. The instance is reused between
+     * transitions so return the same one each time rather than allocating
+     * @return      Animation or null for none
+     */
     protected Animation getOnPushAnimation() {
-        AlphaAnimation fadeIn = new AlphaAnimation(0, 1);
-        fadeIn.setDuration(ANIM_DURATION);
-        return fadeIn;
+        if(mFadeIn == null) {
+            mFadeIn = new AlphaAnimation(0, 1);
+            mFadeIn.setDuration(ANIM_DURATION);
+        }
+        return mFadeIn;
     }
 
+    /**
+     * Animation run on this screen's view when it's popped. The instance is reused between
+     * transitions so return the same one each time rather than allocating
+     * @return      Animation or null for none
+     */
     protected Animation getOnPopAnimation() {
-        AlphaAnimation fadeOut = new AlphaAnimation(1, 0);
-        fadeOut.setDuration(ANIM_DURATION);
-        return fadeOut;
+        if(mFadeOut == null) {
+            mFadeOut = new AlphaAnimation(1, 0);
+            mFadeOut.setDuration(ANIM_DURATION);
+        }
+        return mFadeOut;
+    }
+
+    /**
+     * Return true to have transitions this screen drives (its push and pop) run on hardware
+     * layers with property animators rather than the view Animations below
+     * @return      True to use the hardware layer transition
+     */
+    protected boolean useHardwareTransition() {
+        return false;
+    }
+
+    /**
+     * @return      Length of the hardware layer transition in ms
+     */
+    protected long getTransitionDuration() {
+        return ANIM_DURATION;
+    }
+
+    /**
+     * @return      Fraction of the screen's width this screen slides by during the hardware layer
+     *              transition, 0 for a plain cross fade
+     */
+    protected float getTransitionSlide() {
+        return 0;
     }
 
     protected Animation getOnHiddenAnimaton() {
@@ -99,6 +573,33 @@ public abstract class ScreenController {
         return getOnPushAnimation();
     }
 
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    private void setResult(int resultCode, long longValue, double doubleValue, Object value) {
+        if(mResult != null) {
+            mResult.set(resultCode, longValue, doubleValue, value);
+        }
+    }
+
+    private void takeViewState(View view) {
+        SparseArray<Parcelable> state = new SparseArray<>();
+        view.saveHierarchyState(state);
+        mViewState = state.size() > 0 ? state : null;
+    }
+
+    /*
+     * Copy a result in, a later one replaces one that hasn't been delivered yet
+     */
+    private void receiveResult(ScreenResult result) {
+        if(mReceivedResult == null) {
+            mReceivedResult = new ScreenResult();
+        }
+        mReceivedResult.copyFrom(result);
+        mHasReceivedResult = true;
+    }
+
     /*------------------------------------------------------------------------------------------
      * Abstract Methods
      ------------------------------------------------------------------------------------------*/
@@ -1,7 +1,49 @@
 package timeout.slang.com.icescreen;
 
+import android.os.Bundle;
+
 /**
- * Created by MrLenovo on 20/02/2016.
+ * State a ScreenController hands over when it's asked to release its member data. Backed by a
+ * Bundle so it can be kept cheaply and written out as-is
  */
 public class ScreenControllerData {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Where the screen's state actually lives
+     */
+    private final Bundle mBundle;
+
+    /*------------------------------------------------------------------------------------------
+     * Constructor
+     ------------------------------------------------------------------------------------------*/
+
+    public ScreenControllerData() {
+        this(new Bundle());
+    }
+
+    public ScreenControllerData(Bundle bundle) {
+        mBundle = bundle;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * @return      Bundle to write state into / read it back out of
+     */
+    public Bundle getBundle() {
+        return mBundle;
+    }
+
+    /**
+     * @return      True if nothing has been written
+     */
+    public boolean isEmpty() {
+        return mBundle.isEmpty();
+    }
 }
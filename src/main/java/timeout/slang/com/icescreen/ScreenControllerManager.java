@@ -1,44 +1,338 @@
 package timeout.slang.com.icescreen;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Parcelable;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewGroup;
-import android.view.animation.Animation;
-import android.widget.FrameLayout;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ScreenControllerManager {
 
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Default number of back-stack screens we'll keep a detached view for
+     */
+    public static final int DEFAULT_VIEW_CACHE_SCREENS = 3;
+
+    /**
+     * Default number of views (summed across cached trees) we'll keep for back-stack screens
+     */
+    public static final int DEFAULT_VIEW_CACHE_VIEWS = 600;
+
+    /**
+     * Default number of likely next screens we'll hold a pre-inflated view for
+     */
+    public static final int DEFAULT_PREINFLATE_SCREENS = 2;
+
+    /**
+     * Default number of views (summed across pre-inflated trees) we'll hold
+     */
+    public static final int DEFAULT_PREINFLATE_VIEWS = 300;
+
+    /**
+     * Default time (ms) pushScreenAsync() waits for a worker to start inflating before inflating
+     * on main instead
+     */
+    public static final long DEFAULT_ASYNC_INFLATE_TIMEOUT = 100;
+
+    /**
+     * Key the stack is saved under in the Activity's instance state
+     */
+    private static final String KEY_SCREEN_STACK = "icescreen:screen_stack";
+
+    /**
+     * Keys the stacks that aren't on screen, and the name of the one that is, are saved under
+     */
+    private static final String KEY_INACTIVE_STACKS = "icescreen:inactive_stacks";
+    private static final String KEY_STACK_NAME = "icescreen:stack_name";
+
+    /**
+     * Name of the stack screens go on until switchStack() is called
+     */
+    public static final String DEFAULT_STACK = "default";
+
     /*------------------------------------------------------------------------------------------
      * Private Members
      ------------------------------------------------------------------------------------------*/
 
     /**
-     * Current context
+     * Where screens are displayed, null while we're between Activities
+     */
+    private ScreenHost mHost;
+
+    /**
+     * Thread the last host was attached on, counts as main while we're between contexts
      */
-    private Activity mContext;
+    private Thread mMainThread;
 
     /**
      * Current view displayed on the screen
      */
     private View mView;
 
+    /**
+     * Top screen's tree, held across a configuration change it might absorb
+     */
+    private ScreenController mRetainedScreen;
+    private View mRetainedView;
+
+    /**
+     * Configuration of the Activity mRetainedView was displayed in
+     */
+    private Configuration mRetainedConfig;
+
+    /**
+     * Screen that mView belongs to. Lags behind peekScreen() while a render is pending
+     */
+    private ScreenController mDisplayedScreen;
+
+    /**
+     * Id lookup for mView shared by every SafeRefView, re-pointed whenever mView changes
+     */
+    private final ViewIndex mViewIndex = new ViewIndex();
+
     /**
      * Stack of screens
      */
     private List<ScreenController> mScreens = new ArrayList<>();
 
+    /**
+     * Screens restored after process death that sit below mScreens and haven't been instantiated
+     * yet. They're created one at a time as the stack is popped down to them
+     */
+    private ScreenStackState mUnrestored = new ScreenStackState();
+
+    /**
+     * Name of the stack in mScreens / mUnrestored
+     */
+    private String mStackName = DEFAULT_STACK;
+
+    /**
+     * Every other stack, keyed by name. Their screens keep their state and their top views are
+     * kept aside (not in the view cache) so switching back doesn't re-inflate
+     */
+    private final HashMap<String, Stack> mInactiveStacks = new HashMap<>();
+
+    /**
+     * Top view of the stack we've just switched to, waiting for the render that shows it
+     */
+    private ScreenController mSwitchedScreen;
+    private View mSwitchedView;
+
+    /**
+     * Told how big the saved stack is and how long restoring it took, may be null
+     */
+    private PersistenceListener mPersistenceListener;
+
+    /**
+     * When restoreState() started, 0 if we're not restoring
+     */
+    private long mRestoreStartNanos;
+
     /**
      * Flag to indicate whether the manager is initialised or not
      */
     private boolean mInitialised;
 
+    /**
+     * Detached views of screens lower in the stack, saves re-inflating them on pop. Tied to mHost
+     */
+    private final ScreenViewCache mViewCache = new ScreenViewCache(DEFAULT_VIEW_CACHE_SCREENS, DEFAULT_VIEW_CACHE_VIEWS);
+
+    /**
+     * Views of the top screen's likely successors, inflated while main is idle and taken when one
+     * of them is pushed. Tied to mHost
+     */
+    private final ScreenViewCache mPreInflated = new ScreenViewCache(DEFAULT_PREINFLATE_SCREENS, DEFAULT_PREINFLATE_VIEWS);
+
+    /**
+     * Index of the next of the top screen's likely successors to pre-inflate
+     */
+    private int mPreInflateIndex;
+
+    /**
+     * True while mPreInflater is registered with the host
+     */
+    private boolean mPreInflateScheduled;
+
+    /**
+     * Pushes that found a pre-inflated view, and pushes that had to inflate
+     */
+    private int mPreInflateHits;
+    private int mPreInflateMisses;
+
+    /**
+     * Snapshots the hierarchy state of cached trees before the stack is saved
+     */
+    private final ScreenViewCache.Visitor mViewStateSaver = new ScreenViewCache.Visitor() {
+        public void visit(ScreenController screen, View view) {
+            screen.saveViewState(view);
+        }
+    };
+
+    /**
+     * Pre-inflates one likely successor each time main runs out of messages
+     */
+    private final MessageQueue.IdleHandler mPreInflater = new MessageQueue.IdleHandler() {
+        public boolean queueIdle() {
+            mPreInflateScheduled = preInflateNext();
+            return mPreInflateScheduled;
+        }
+    };
+
+    /**
+     * Sub-layouts shed by screens whose trees were thrown away, handed out by
+     * ScreenController.obtainView(). Tied to mHost
+     */
+    private final ScreenViewPool mViewPool = new ScreenViewPool(ScreenViewPool.DEFAULT_MAX_PER_LAYOUT);
+
+    /**
+     * Work screens have put off until after the first frame / transition / at idle
+     */
+    private final DeferredWorkScheduler mScheduler = new DeferredWorkScheduler();
+
+    /**
+     * Animates between screens inside a root container the host attaches, lives as long as mHost
+     */
+    private final ScreenTransitionEngine mTransitions = new ScreenTransitionEngine(new ScreenTransitionEngine.Callback() {
+        public void onTransitionEnd(ScreenController outgoingScreen, View outgoing) {
+            // Hold onto the hidden view so popping back to it doesn't need to inflate. If the
+            // cache won't take it the eviction listener snapshots its state
+            if(outgoingScreen == null || !isCurrent(outgoing)) {
+                return;
+            }
+            Stack stack = findInactiveStack(outgoingScreen);
+            if(stack != null) {
+                // Switched away from, its stack keeps it rather than it competing for the cache
+                stack.mTopView = outgoing;
+            } else if(isInStack(outgoingScreen)) {
+                mViewCache.put(outgoingScreen, outgoing);
+            } else {
+                // Popped - its tree is done with, recycle its common sub-layouts
+                outgoingScreen.releaseObtainedViews(true);
+            }
+        }
+
+        public void onTransitionComplete() {
+            mScheduler.onTransitionFinished();
+        }
+    });
+
+    /**
+     * Where navigation timings go, null (the default) means nothing is timed
+     */
+    private ScreenMetrics mMetrics;
+
+    /**
+     * When the first op since the last render arrived, 0 if not timing
+     */
+    private long mOpStartNanos;
+
+    /**
+     * Observer set through setTransitionObserver(), may be null
+     */
+    private ScreenTransitionEngine.TransitionObserver mTransitionObserver;
+
+    /**
+     * Watches transition frames for jank, null (the default) when off
+     */
+    private ScreenJankDetector mJankDetector;
+
+    /**
+     * Watches for screens keeping old Activities alive, null unless debugging leaks
+     */
+    private ScreenLeakDetector mLeakDetector;
+
+    /**
+     * Set on the engine while an observer, metrics or the jank detector want to know when
+     * transitions finish
+     */
+    private final ScreenTransitionEngine.TransitionObserver mTransitionRelay = new ScreenTransitionEngine.TransitionObserver() {
+        public void onTransitionFinished(Class<? extends ScreenController> screenClass, boolean hardware,
+                                         long durationNanos, int frames, long drawNanos) {
+            if(mTransitionObserver != null) {
+                mTransitionObserver.onTransitionFinished(screenClass, hardware, durationNanos, frames, drawNanos);
+            }
+            if(mMetrics != null && screenClass != null) {
+                mMetrics.record(screenClass, ScreenMetrics.EVENT_TRANSITION, durationNanos);
+            }
+            if(mJankDetector != null) {
+                mJankDetector.stop();
+            }
+        }
+    };
+
+    /**
+     * Background work for screens and pushScreenAsync() inflation, created on first use
+     */
+    private ScreenControllerService mService;
+
+    /**
+     * Total of ScreenController.getRetainedMemoryEstimate() we'll allow before buried screens are
+     * asked to release their state, deepest first. 0 for no budget
+     */
+    private long mMemoryBudget;
+
+    /**
+     * View inflated by pushScreenAsync() waiting for its screen to be rendered
+     */
+    private ScreenController mInflatedScreen;
+    private View mInflatedView;
+
+    /**
+     * True while mRender is posted. Stack ops arriving in the meantime just change mScreens and
+     * are collapsed into that one render
+     */
+    private boolean mRenderPending;
+
+    /**
+     * Brings the display up to date with the top of the stack
+     */
+    private final Runnable mRender = new Runnable() {
+        public void run() {
+            mRenderPending = false;
+            render();
+        }
+    };
+
+    /*------------------------------------------------------------------------------------------
+     * Constructor
+     ------------------------------------------------------------------------------------------*/
+
+    public ScreenControllerManager() {
+        // Trees only get thrown away while their screen is still in the stack when they're evicted
+        // or the context goes, snapshot their state so the next tree can pick up where they were
+        mViewCache.setOnEvictListener(new ScreenViewCache.OnEvictListener() {
+            public void onEvicted(ScreenController screen, View view) {
+                screen.saveViewState(view);
+                screen.releaseObtainedViews(true);
+            }
+        });
+
+        // Pre-inflated trees that never got pushed still have sub-layouts worth recycling
+        mPreInflated.setOnEvictListener(new ScreenViewCache.OnEvictListener() {
+            public void onEvicted(ScreenController screen, View view) {
+                screen.releaseObtainedViews(true);
+            }
+        });
+    }
+
     /*------------------------------------------------------------------------------------------
      * Public Methods
      ------------------------------------------------------------------------------------------*/
@@ -68,211 +362,1538 @@ public class ScreenControllerManager {
         return new SafeRefContext();
     }
 
+    /**
+     * @return      Worker service screens submit background tasks to. Tasks are cancelled when
+     *              their screen leaves the stack and results wait for a live context
+     */
+    public ScreenControllerService getService() {
+        assertMainThread("getService()");
+
+        if(mService == null) {
+            mService = new ScreenControllerService(ScreenControllerManager.this, ScreenControllerService.DEFAULT_THREADS);
+            if(mHost != null) {
+                mService.onContextAvailable(mHost);
+            }
+        }
+        return mService;
+    }
+
     /**
      * @return      True if we don't currently have a context
      */
     public boolean isInConfigChange() {
-        return mContext == null;
+        return mHost == null;
     }
 
-    /*------------------------------------------------------------------------------------------
-     * Public Methods - ScreenController Ops
-     ------------------------------------------------------------------------------------------*/
-
     /**
-     * Add a screen to the stack and display it
-     * @param screen
+     * Bound the cache of views kept for screens lower in the stack. Least recently used views are
+     * evicted first when either limit is hit
+     * @param maxScreens    Maximum number of screens to keep a view for, 0 disables the cache
+     * @param maxViews      Maximum number of views summed across every cached tree
      */
-    public void pushScreen(final ScreenController screen) {
-        //Throw exception if we're not on main thread
-        assertMainThread("pushScreen() - Not main thread would mean a call to setContentView while we may not have Activity");
-
-        // Grab previous screen (if there is one)
-        final ScreenController prevScreen = peekScreen();
-
-        // Set new screen as current
-        mScreens.add(screen);
-        screen.setScreenManager(ScreenControllerManager.this);
-
-        // Create a FrameLayout as our root for animating both screens
-        FrameLayout animView = new FrameLayout(mContext);
-
-        // Remove current screen from root and add to our animating view
-        final View prev = mView;
-        if(prev != null) {
-            ((ViewGroup) prev.getParent()).removeView(prev);
-            animView.addView(prev);
-        }
-
-        // Get next screen and add it to animView
-        final View next = screen.createView(LayoutInflater.from(mContext));
-        animView.addView(mView = next);
+    public void setViewCacheSize(int maxScreens, int maxViews) {
+        assertMainThread("setViewCacheSize()");
 
-        // Set our animation view as the root
-        mContext.setContentView(animView);
+        mViewCache.setMaxSize(maxScreens, maxViews);
+    }
 
-        // Tell screen the view has been added
-        peekScreen().onSetActive();
+    /**
+     * Bound the cache of views pre-inflated for the top screen's likely successors
+     * @param maxScreens    Maximum number of screens to pre-inflate, 0 turns pre-inflation off
+     * @param maxViews      Maximum number of views summed across every pre-inflated tree
+     */
+    public void setPreInflateCacheSize(int maxScreens, int maxViews) {
+        assertMainThread("setPreInflateCacheSize()");
 
-        Animation pushAnim = screen.getOnPushAnimation();
-        pushAnim.setAnimationListener(new Animation.AnimationListener() {
-            public void onAnimationStart(Animation animation) {}
-            public void onAnimationRepeat(Animation animation) {}
-            public void onAnimationEnd(Animation animation) {
-                // Remove our new screen view from parent and set it to content view
-                ((ViewGroup) next.getParent()).removeView(next);
-                mContext.setContentView(next);
-            }
-        });
-        next.startAnimation(pushAnim);
-        if(prev != null && prevScreen != null) {
-            Animation hiddenAnim = prevScreen.getOnHiddenAnimaton();
-            prev.startAnimation(hiddenAnim);
-        }
+        mPreInflated.setMaxSize(maxScreens, maxViews);
     }
 
     /**
-     * @return      Currently displayed screen (top of stack)
+     * Cap the pool of recycled sub-layouts handed out by ScreenController.obtainView()
+     * @param maxPerLayout  Maximum number of views to keep per layout id, 0 turns recycling off
      */
-    public ScreenController peekScreen() {
-        // TODO - Assert this as well?7
+    public void setViewPoolSize(int maxPerLayout) {
+        assertMainThread("setViewPoolSize()");
 
-        return mScreens.isEmpty() ? null : mScreens.get(mScreens.size() - 1);
+        mViewPool.setMaxPerLayout(maxPerLayout);
     }
 
     /**
-     * @return      Remove the current screen and display content of the one underneath
+     * @param nanos     Time per frame spent running work screens deferred with
+     *                  ScreenController.defer(), see DeferredWorkScheduler.DEFAULT_FRAME_BUDGET_NANOS
      */
-    public ScreenController popScreen() {
-        //Throw exception if we're not on main thread
-        assertMainThread("pushScreen() - Not main thread would mean a call to setContentView while we may not have Activity");
-
-        // Grab current screen & view
-        final ScreenController curScreen = mScreens.remove(mScreens.size() - 1);
-        final View curView = mView;
+    public void setDeferredWorkBudget(long nanos) {
+        assertMainThread("setDeferredWorkBudget()");
 
-        // Get screen underneath and create matching view
-        final ScreenController underneath = peekScreen();
-        final View underneathView = underneath != null ? underneath.createView(LayoutInflater.from(mContext)) : null;
+        mScheduler.setFrameBudget(nanos);
+    }
 
-        // Create a FrameLayout as our root for animating both screens + add screen that'll be revealed
-        FrameLayout animView = new FrameLayout(mContext);
-        if(underneathView != null) {
-            animView.addView(mView = underneathView);
-        }
+    /**
+     * @return      Number of pushes that used a pre-inflated view
+     */
+    public int getPreInflateHitCount() {
+        return mPreInflateHits;
+    }
 
-        // Remove current view and add to animation view
-        ((ViewGroup) curView.getParent()).removeView(curView);
-        animView.addView(curView);
+    /**
+     * @return      Number of pushes that had to inflate because nothing was pre-inflated
+     */
+    public int getPreInflateMissCount() {
+        return mPreInflateMisses;
+    }
 
-        // Set our animation view as the root
-        mContext.setContentView(animView);
+    /**
+     * Set the budget for state retained by screens in the stack. Whenever the estimates of
+     * screens that still hold their state add up to more than this, screens below the top are
+     * asked to release theirs (deepest first) and rebuild it when revealed
+     * @param bytes     Budget in bytes, 0 for none
+     */
+    public void setMemoryBudget(long bytes) {
+        assertMainThread("setMemoryBudget()");
 
-        // Tell underlying screen it's been added
-        if(underneath != null) {
-            underneath.onSetActive();
-        }
+        mMemoryBudget = bytes;
+        enforceMemoryBudget();
+    }
 
-        Animation popAnim = curScreen.getOnPopAnimation();
-        popAnim.setAnimationListener(new Animation.AnimationListener() {
-            public void onAnimationStart(Animation animation) {}
-            public void onAnimationRepeat(Animation animation) {}
-            public void onAnimationEnd(Animation animation) {
-                // Remove our new screen view from parent and set it to content view
-                ((ViewGroup) underneathView.getParent()).removeView(underneathView);
-                mContext.setContentView(underneathView);
-            }
-        });
-        curView.startAnimation(popAnim);
-        if(underneath != null && underneathView != null) {
-            Animation hiddenAnim = underneath.getOnRevealAnimation();
-            underneathView.startAnimation(hiddenAnim);
-        }
+    /**
+     * Set something to be told the size of each screen in the saved instance state and how long
+     * restoring the stack took, to keep an eye on TransactionTooLargeException risk
+     * @param listener      Listener or null
+     */
+    public void setPersistenceListener(PersistenceListener listener) {
+        assertMainThread("setPersistenceListener()");
 
-        return curScreen;
+        mPersistenceListener = listener;
     }
 
     /**
-     * @return
+     * @return      Number of objects the transition engine has created itself (root container and
+     *              snapshot bitmap, drawable and view), goes up for each new Activity or snapshot
+     *              size. Not a measure of what push/pop allocates - the view cache, view system,
+     *              animations and screens aren't counted
      */
-    public int getScreenCount() {
-        return mScreens.size();
+    public int getTransitionAllocationCount() {
+        return mTransitions.getAllocationCount();
     }
 
-    /*------------------------------------------------------------------------------------------
-     * Protected Methods - Called by containing Activity
-     ------------------------------------------------------------------------------------------*/
-
     /**
-     * Called from containing activity
+     * Set something to be told the duration, frame count and draw cost of every transition along
+     * with the screen that drove it, so the view Animation and hardware layer paths can be
+     * compared. Costs nothing while unset
+     * @param observer      Observer or null to stop measuring
      */
-    protected void initialise() {
-        // Just a flag for now so this is on;y called once
-        mInitialised = true;
+    public void setTransitionObserver(ScreenTransitionEngine.TransitionObserver observer) {
+        assertMainThread("setTransitionObserver()");
+
+        mTransitionObserver = observer;
+        updateTransitionObserver();
     }
 
     /**
-     * @return      True if initialised has been called
+     * Animate a bitmap snapshot of the outgoing screen rather than its live view tree, so only the
+     * incoming screen is laid out and drawn during a transition. The bitmap is reused between
+     * transitions (screen sized, ARGB_8888) and freed under memory pressure. Off by default
+     * @param enabled       True to snapshot
      */
-    protected boolean isInitialised() {
-        return mInitialised;
+    public void setTransitionSnapshots(boolean enabled) {
+        assertMainThread("setTransitionSnapshots()");
+
+        mTransitions.setSnapshots(enabled);
     }
 
     /**
-     * Called by containing class right on onPause
+     * Record inflate time, time to onSetActive(), transition duration and config change rebuild
+     * time per screen class. See ScreenMetricsRecorder for a histogram implementation
+     * @param metrics       Where to record, null (the default) to stop timing altogether
      */
-    protected void onPreContextChange() {
-        // Inform top level screen theres about to be a config change
-        ScreenController curScreen = peekScreen();
-        if(curScreen != null) {
-            curScreen.onPreConfigurationChange();
-        }
+    public void setMetrics(ScreenMetrics metrics) {
+        assertMainThread("setMetrics()");
 
-        // Remove hard references to context and view tree
-        mContext = null;
-        mView = null;
+        mMetrics = metrics;
+        mOpStartNanos = 0;
+        updateTransitionObserver();
     }
 
     /**
-     * Called during onCreate
-     * @param context   Created context
+     * Count dropped frames during every push/pop transition, recording them against the pair of
+     * screens transitioned between. Off by default
+     * @param detector      Detector to record into, null to stop watching
      */
-    protected void onContextChange(Activity context) {
-        mContext = context;
-
-        setContentView();
+    public void setJankDetector(ScreenJankDetector detector) {
+        assertMainThread("setJankDetector()");
 
-        // Tell screen it's active
-        ScreenController active = peekScreen();
-        if(active != null) {
-            active.onSetActive();
+        if(mJankDetector != null) {
+            mJankDetector.stop();
         }
+        mJankDetector = detector;
+        updateTransitionObserver();
     }
 
     /**
-     * Called by containing activity when back pressed. Passes to top screen on stack
-     * @return      True if we're consuming back press
+     * Check that screens let go of the old Activity and view tree after each config change,
+     * reporting the field that's holding on if they don't. For debug builds only
+     * @param detector      Detector to report through, null to stop checking
      */
-    protected boolean onBackPressed() {
-        return mScreens.isEmpty() ? false : peekScreen().onBackPressed();
+    public void setLeakDetector(ScreenLeakDetector detector) {
+        assertMainThread("setLeakDetector()");
+
+        if(mLeakDetector != null) {
+            mLeakDetector.cancel();
+        }
+        mLeakDetector = detector;
     }
 
     /*------------------------------------------------------------------------------------------
-     * Private Methods
+     * Public Methods - ScreenController Ops
      ------------------------------------------------------------------------------------------*/
 
-    /*
-     * Throw exception if we're not on main thread
+    /**
+     * Add a screen to the stack and display it
+     * @param screen
      */
-    private void assertMainThread(String msg) {
-        if(Thread.currentThread() != Looper.getMainLooper().getThread()) {
-            throw new IllegalAccessError("Call on main thread: " + msg);
+    public void pushScreen(final ScreenController screen) {
+        commitPush(screen, null);
+    }
+
+    /**
+     * Push a screen that hands a result back to another when it's removed. The result is delivered
+     * to from's onScreenResult() after it's revealed (held while we're between contexts), and
+     * dropped if from leaves the stack first. An object value is held until then, so don't pass
+     * Views or Contexts. The link isn't kept across process death
+     * @param from          Screen to hand the result to, normally the current top
+     * @param screen        Screen to push
+     * @param requestCode   Handed back with the result
+     * @throws IllegalArgumentException if from isn't in a stack, its result would never arrive
+     */
+    public void pushScreenForResult(ScreenController from, ScreenController screen, int requestCode) {
+        //Throw exception if we're not on main thread
+        assertMainThread("pushScreenForResult() - Not main thread would mean a call to setContentView while we may not have Activity");
+
+        if(from == null || !isInStack(from)) {
+            throw new IllegalArgumentException("Results can only go to a screen in a stack: " + from);
         }
+        screen.setResultTarget(from, requestCode);
+        pushScreen(screen);
     }
 
-    private void setContentView() {
-        if(!mScreens.isEmpty()) {
-            mContext.setContentView(mView = peekScreen().createView(LayoutInflater.from(mContext)));
+    /**
+     * Push a screen, inflating its view on a worker thread if it says that's safe. The screen is
+     * added to the stack and animated in on the main thread once inflation finishes. If no worker
+     * has started on it after DEFAULT_ASYNC_INFLATE_TIMEOUT we give up and inflate synchronously
+     * @param screen    Screen to push
+     * @param listener  Told which path the push went down, may be null
+     */
+    public void pushScreenAsync(ScreenController screen, OnPushListener listener) {
+        pushScreenAsync(screen, DEFAULT_ASYNC_INFLATE_TIMEOUT, listener);
+    }
+
+    /**
+     * Push a screen, inflating its view on a worker thread if it says that's safe. The screen is
+     * added to the stack and animated in on the main thread once inflation finishes. If no worker
+     * has started on it after timeoutMs we give up and inflate synchronously. A worker that has
+     * started is always waited for, a screen is never inflated twice at once
+     * @param screen    Screen to push
+     * @param timeoutMs How long to wait for a worker to start before falling back to inflating on
+     *                  main
+     * @param listener  Told which path the push went down, may be null
+     */
+    public void pushScreenAsync(ScreenController screen, long timeoutMs, OnPushListener listener) {
+        //Throw exception if we're not on main thread
+        assertMainThread("pushScreenAsync() - Not main thread would mean we may not have Activity to inflate with");
+
+        // Screens that can't be inflated off main (or no host to inflate with) go the sync route
+        LayoutInflater inflater = isInConfigChange() ? null : mHost.getWorkerInflater(screen);
+        if(!screen.canInflateOffMainThread() || inflater == null) {
+            pushScreen(screen);
+            if(listener != null) {
+                listener.onPushed(screen, false);
+            }
+            return;
+        }
+
+        screen.setScreenManager(ScreenControllerManager.this);
+        AsyncPush push = new AsyncPush(screen, mHost, inflater, listener);
+        mHost.post(push.mTimeout, timeoutMs);
+        getService().execute(push);
+    }
+
+    /**
+     * @return      Currently displayed screen (top of stack)
+     */
+    public ScreenController peekScreen() {
+        // TODO - Assert this as well?7
+
+        return mScreens.isEmpty() ? null : mScreens.get(mScreens.size() - 1);
+    }
+
+    /**
+     * @return      Remove the current screen and display content of the one underneath. Null if
+     *              the stack was empty
+     */
+    public ScreenController popScreen() {
+        //Throw exception if we're not on main thread
+        assertMainThread("pushScreen() - Not main thread would mean a call to setContentView while we may not have Activity");
+
+        if(mScreens.isEmpty()) {
+            return null;
+        }
+
+        ScreenController curScreen = mScreens.remove(mScreens.size() - 1);
+        onScreenRemoved(curScreen);
+        restoreTop();
+        requestRender();
+
+        return curScreen;
+    }
+
+    /**
+     * Push several screens in one go. Only the last one is inflated and animated in, the others
+     * are just added to the stack and created when they're revealed
+     * @param screens   Screens to push, last one ends up on top
+     */
+    public void pushAll(List<? extends ScreenController> screens) {
+        //Throw exception if we're not on main thread
+        assertMainThread("pushAll() - Not main thread would mean a call to setContentView while we may not have Activity");
+
+        for(ScreenController screen : screens) {
+            mScreens.add(screen);
+            screen.setScreenManager(ScreenControllerManager.this);
+        }
+        requestRender();
+    }
+
+    /**
+     * Replace the whole stack with a single transition from the current screen to the new top
+     * @param screens   New stack, last one ends up on top
+     */
+    public void setStack(List<? extends ScreenController> screens) {
+        //Throw exception if we're not on main thread
+        assertMainThread("setStack() - Not main thread would mean a call to setContentView while we may not have Activity");
+
+        List<ScreenController> old = new ArrayList<>(mScreens);
+        mScreens.clear();
+        mUnrestored = new ScreenStackState();
+        for(ScreenController screen : screens) {
+            mScreens.add(screen);
+            screen.setScreenManager(ScreenControllerManager.this);
+        }
+        for(ScreenController screen : old) {
+            if(!mScreens.contains(screen)) {
+                onScreenRemoved(screen);
+            }
+        }
+        requestRender();
+    }
+
+    /**
+     * Pop every screen above the given one, with a single transition straight to it
+     * @param screen    Screen to end up on top, nothing happens if it isn't in the stack
+     * @return          The popped screens, top first
+     */
+    public List<ScreenController> popTo(ScreenController screen) {
+        //Throw exception if we're not on main thread
+        assertMainThread("popTo() - Not main thread would mean a call to setContentView while we may not have Activity");
+
+        int index = mScreens.lastIndexOf(screen);
+        return index < 0 ? new ArrayList<ScreenController>() : popToIndex(index);
+    }
+
+    /**
+     * Pop every screen above the topmost screen of the given class, with a single transition
+     * straight to it
+     * @param screenClass   Class of screen to end up on top, nothing happens if none are in the stack
+     * @return              The popped screens, top first
+     */
+    public List<ScreenController> popTo(Class<? extends ScreenController> screenClass) {
+        //Throw exception if we're not on main thread
+        assertMainThread("popTo() - Not main thread would mean a call to setContentView while we may not have Activity");
+
+        int index = mScreens.size() - 1;
+        while(index >= 0 && !screenClass.isInstance(mScreens.get(index))) {
+            index--;
+        }
+        if(index >= 0) {
+            return popToIndex(index);
+        }
+
+        // Not instantiated yet, see if it's one of the screens restored after process death
+        int restoredIndex = mUnrestored.size() - 1;
+        while(restoredIndex >= 0 && !screenClass.getName().equals(mUnrestored.getClassName(restoredIndex))) {
+            restoredIndex--;
+        }
+        if(restoredIndex < 0) {
+            return new ArrayList<ScreenController>();
+        }
+        mUnrestored.truncate(restoredIndex + 1);
+        return popToIndex(-1);
+    }
+
+    /**
+     * @return
+     */
+    public int getScreenCount() {
+        return mUnrestored.size() + mScreens.size();
+    }
+
+    /**
+     * Switch to another stack, e.g. for a tab. Each stack has its own screens and back behaviour;
+     * everything else (view cache, metrics, memory budget, services) is shared. The top view of
+     * the stack being left is kept with it, outside the view cache, so switching back doesn't
+     * inflate. Those views go under memory pressure or when the stack's top releases its state
+     * @param name      Stack to switch to, created empty if it doesn't exist yet
+     */
+    public void switchStack(String name) {
+        //Throw exception if we're not on main thread
+        assertMainThread("switchStack() - Not main thread would mean a call to setContentView while we may not have Activity");
+
+        if(name.equals(mStackName)) {
+            return;
+        }
+
+        // Let the transition in flight hand its outgoing view back while it's in the right stack
+        mTransitions.fastForward();
+
+        // Swap the stacks over, reusing the holder so switching back and forth doesn't allocate
+        Stack stack = mInactiveStacks.remove(name);
+        if(stack == null) {
+            stack = new Stack();
+        }
+        List<ScreenController> screens = stack.mScreens;
+        ScreenStackState unrestored = stack.mUnrestored;
+        View topView = stack.mTopView;
+        stack.mScreens = mScreens;
+        stack.mUnrestored = mUnrestored;
+        stack.mTopView = null;
+        mInactiveStacks.put(mStackName, stack);
+
+        // A top view we switched to but never showed goes back to its stack
+        flushSwitchedView();
+
+        mScreens = screens;
+        mUnrestored = unrestored;
+        mStackName = name;
+        if(topView != null) {
+            mSwitchedScreen = peekScreen();
+            mSwitchedView = topView;
+        }
+        restoreTop();
+        requestRender();
+    }
+
+    /**
+     * @return      Name of the stack being displayed
+     */
+    public String getStackName() {
+        return mStackName;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Protected Methods - Called by containing Activity
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Called from containing activity
+     */
+    protected void initialise() {
+        // Just a flag for now so this is on;y called once
+        mInitialised = true;
+    }
+
+    /**
+     * @return      True if initialised has been called
+     */
+    protected boolean isInitialised() {
+        return mInitialised;
+    }
+
+    /**
+     * Called by containing activity from onSaveInstanceState. Writes the class of every screen
+     * plus whatever it saves in ScreenController.onSaveState() so the stack survives process death.
+     * The hierarchy state of every tree we hold, displayed or hidden, goes with it
+     * @param outState      Activity's instance state
+     */
+    protected void saveState(Bundle outState) {
+        saveViewStates();
+        ScreenStackState state = collectStack(mScreens, mUnrestored);
+        Bundle stack = new Bundle();
+        state.writeTo(stack);
+        outState.putBundle(KEY_SCREEN_STACK, stack);
+        outState.putString(KEY_STACK_NAME, mStackName);
+
+        int screens = state.size();
+        int bytes = mPersistenceListener != null ? ScreenStackState.measure(stack) : 0;
+
+        if(!mInactiveStacks.isEmpty()) {
+            Bundle inactive = new Bundle();
+            for(Map.Entry<String, Stack> entry : mInactiveStacks.entrySet()) {
+                ScreenStackState inactiveState = collectStack(entry.getValue().mScreens, entry.getValue().mUnrestored);
+                Bundle inactiveStack = new Bundle();
+                inactiveState.writeTo(inactiveStack);
+                inactive.putBundle(entry.getKey(), inactiveStack);
+
+                screens += inactiveState.size();
+                bytes += mPersistenceListener != null ? ScreenStackState.measure(inactiveStack) : 0;
+            }
+            outState.putBundle(KEY_INACTIVE_STACKS, inactive);
+        }
+
+        if(mPersistenceListener != null) {
+            mPersistenceListener.onStackSaved(screens, bytes);
+        }
+    }
+
+    /**
+     * Called by containing activity, before the first onContextChange(), when it's been recreated
+     * after process death. Only the top screen is instantiated, the rest are created as they're
+     * revealed
+     * @param savedState    Activity's saved instance state
+     * @return              True if a stack was restored
+     */
+    protected boolean restoreState(Bundle savedState) {
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        // Stacks that weren't on screen are restored as they were switched to
+        Bundle inactive = savedState.getBundle(KEY_INACTIVE_STACKS);
+        if(inactive != null) {
+            mInactiveStacks.clear();
+            for(String name : inactive.keySet()) {
+                ScreenStackState inactiveState = ScreenStackState.readFrom(inactive.getBundle(name), classLoader);
+                if(inactiveState != null) {
+                    Stack restored = new Stack();
+                    restored.mUnrestored = inactiveState;
+                    mInactiveStacks.put(name, restored);
+                }
+            }
+        }
+        String name = savedState.getString(KEY_STACK_NAME);
+        if(name != null) {
+            mStackName = name;
+        }
+
+        Bundle stack = savedState.getBundle(KEY_SCREEN_STACK);
+        ScreenStackState state = stack != null ? ScreenStackState.readFrom(stack, classLoader) : null;
+        if(state == null || state.size() == 0) {
+            return false;
+        }
+
+        mRestoreStartNanos = System.nanoTime();
+        mScreens.clear();
+        mUnrestored = state;
+        restoreTop();
+        return true;
+    }
+
+    /**
+     * Called by containing class right on onPause
+     */
+    protected void onPreContextChange() {
+        // Inform top level screen theres about to be a config change
+        ScreenController curScreen = peekScreen();
+        if(curScreen != null) {
+            curScreen.onPreConfigurationChange();
+        }
+
+        // Remove hard references to context and view tree, snapshotting the displayed one's state
+        mTransitions.detach();
+        mScheduler.detach();
+        boolean retained = retainView();
+        if(!retained && mDisplayedScreen != null && mView != null) {
+            mDisplayedScreen.saveViewState(mView);
+        }
+        if(mLeakDetector != null && mHost != null && isGoingAway(mHost.getContext())) {
+            mLeakDetector.watch(this, mHost, mHost.getContext(), retained ? null : mView);
+        }
+        if(mHost != null) {
+            mHost.removeCallbacks(mRender);
+            mHost.removeIdleHandler(mPreInflater);
+            mHost.detach();
+        }
+        mPreInflateScheduled = false;
+        mRenderPending = false;
+        mOpStartNanos = 0;
+        mHost = null;
+        // A retained tree keeps its views, they're let go if it's discarded
+        if(!retained && mDisplayedScreen != null) {
+            mDisplayedScreen.releaseObtainedViews(false);
+        }
+        releaseStackViews(false);
+        mDisplayedScreen = null;
+        mInflatedScreen = null;
+        mInflatedView = null;
+        setCurrentView(null);
+        mViewCache.clear();
+        mPreInflated.clear();
+        mViewPool.clear();
+    }
+
+    /**
+     * Called during onCreate
+     * @param context   Created context
+     */
+    protected void onContextChange(Activity context) {
+        onContextChange(new ActivityScreenHost(context));
+    }
+
+    /**
+     * Start displaying in a host, e.g. a HeadlessScreenHost to run the stack without an Activity
+     * @param host      Host to display in
+     */
+    protected void onContextChange(ScreenHost host) {
+        long start = mMetrics != null ? System.nanoTime() : 0;
+        mOpStartNanos = 0;
+        mHost = host;
+        mMainThread = Thread.currentThread();
+
+        // Anything SafeRefViews looked up belongs to the old tree
+        mViewIndex.invalidate();
+
+        setContentView();
+        mScheduler.attach(host);
+
+        // Tell screen it's active, along with any result that arrived while we had no context
+        ScreenController active = peekScreen();
+        if(active != null) {
+            active.onSetActive();
+            if(mMetrics != null && start != 0) {
+                mMetrics.record(active.getClass(), ScreenMetrics.EVENT_CONFIG_REBUILD, System.nanoTime() - start);
+            }
+            active.deliverResult();
+        }
+        schedulePreInflate();
+
+        // Hand over any background results that finished while we had no context
+        if(mService != null) {
+            mService.onContextAvailable(host);
+        }
+
+        // First context after a restore - report how long getting the top screen up took
+        if(mRestoreStartNanos != 0) {
+            if(mPersistenceListener != null) {
+                mPersistenceListener.onStackRestored(getScreenCount(), System.nanoTime() - mRestoreStartNanos);
+            }
+            mRestoreStartNanos = 0;
+        }
+    }
+
+    /**
+     * Called by containing activity when the system asks it to trim memory. Cached views go first,
+     * then buried screens are asked to release their state if things are critical or we're in
+     * the background
+     * @param level     Level passed to Activity.onTrimMemory()
+     */
+    protected void onTrimMemory(int level) {
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            discardRetainedView();
+            mTransitions.releaseSnapshot();
+            releaseStackViews(true);
+            mViewCache.clear();
+            mPreInflated.clear();
+            mViewPool.clear();
+        }
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            for(Stack stack : mInactiveStacks.values()) {
+                for(int i = 0; i < stack.mScreens.size(); i++) {
+                    releaseState(stack.mScreens.get(i));
+                }
+            }
+            for(int i = 0; i < mScreens.size() - 1; i++) {
+                releaseState(mScreens.get(i));
+            }
+        }
+    }
+
+    /**
+     * Called by containing activity when the whole system is low on memory
+     */
+    protected void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Called by containing activity when back pressed. Passes to top screen on stack
+     * @return      True if we're consuming back press
+     */
+    protected boolean onBackPressed() {
+        return mScreens.isEmpty() ? false : peekScreen().onBackPressed();
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Package Methods - Called by ScreenController
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Put work off until a better moment, see ScreenController.defer()
+     * @param owner     Screen the work belongs to
+     * @param when      One of the DeferredWorkScheduler constants
+     * @param work      Work to run
+     */
+    void defer(ScreenController owner, int when, Runnable work) {
+        assertMainThread("defer()");
+
+        mScheduler.schedule(owner, when, work);
+    }
+
+    /**
+     * @return          True if we're on the thread the host treats as main
+     */
+    boolean isMainThread() {
+        if(mHost != null) {
+            return mHost.isMainThread();
+        }
+        if(mMainThread != null) {
+            return Thread.currentThread() == mMainThread;
+        }
+        return Thread.currentThread() == Looper.getMainLooper().getThread();
+    }
+
+    /**
+     * @param layoutId  Layout resource id
+     * @return          A recycled view inflated from it, null if the pool has none or we're not
+     *                  on main (e.g. pushScreenAsync() inflating on a worker)
+     */
+    View obtainPooledView(int layoutId) {
+        ScreenHost host = mHost;
+        if(host == null || !host.isMainThread()) {
+            return null;
+        }
+        return mViewPool.obtain(layoutId);
+    }
+
+    /**
+     * @param layoutId  Layout resource the view was inflated from
+     * @param view      View to recycle, dropped if it belongs to an old context
+     */
+    void releasePooledView(int layoutId, View view) {
+        assertMainThread("releaseView() - The pool isn't thread safe");
+
+        if(view.getContext() == getHostContext()) {
+            mViewPool.release(layoutId, view);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Package Methods - Called by ScreenLeakDetector
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * @param out       Filled with the screens in every stack, popped screens aren't included
+     */
+    void collectScreens(List<ScreenController> out) {
+        out.addAll(mScreens);
+        for(Stack stack : mInactiveStacks.values()) {
+            out.addAll(stack.mScreens);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /*
+     * Throw exception if we're not on main thread. The host decides which thread that is, between
+     * contexts it's the one the last host was attached on (so a HeadlessScreenHost's still counts)
+     */
+    private void assertMainThread(String msg) {
+        if(!isMainThread()) {
+            throw new IllegalAccessError("Call on main thread: " + msg);
+        }
+    }
+
+    /*
+     * Add a screen to the stack and bring the display up to date. If inflated is null the
+     * screen's view is inflated when it's rendered
+     */
+    private void commitPush(ScreenController screen, View inflated) {
+        //Throw exception if we're not on main thread
+        assertMainThread("pushScreen() - Not main thread would mean a call to setContentView while we may not have Activity");
+
+        // Set new screen as current
+        mScreens.add(screen);
+        screen.setScreenManager(ScreenControllerManager.this);
+
+        if(inflated != null) {
+            mInflatedScreen = screen;
+            mInflatedView = inflated;
+        }
+        requestRender();
+    }
+
+    /*
+     * Pop everything above index. -1 pops every instantiated screen, leaving the top restored
+     * screen (if there are any) on top
+     */
+    private List<ScreenController> popToIndex(int index) {
+        List<ScreenController> popped = new ArrayList<>();
+        while(mScreens.size() > index + 1) {
+            ScreenController screen = mScreens.remove(mScreens.size() - 1);
+            onScreenRemoved(screen);
+            popped.add(screen);
+        }
+        restoreTop();
+        requestRender();
+        return popped;
+    }
+
+    /*
+     * Release buried screens' state, deepest first, until we're back under budget
+     */
+    private void enforceMemoryBudget() {
+        if(mMemoryBudget <= 0) {
+            return;
+        }
+
+        // The budget covers every stack, the ones that aren't on screen give up their state first
+        long retained = getRetainedEstimate(mScreens);
+        if(!mInactiveStacks.isEmpty()) {
+            for(Stack stack : mInactiveStacks.values()) {
+                retained += getRetainedEstimate(stack.mScreens);
+            }
+            for(Stack stack : mInactiveStacks.values()) {
+                retained = releaseStates(stack.mScreens, stack.mScreens.size(), retained);
+            }
+        }
+        releaseStates(mScreens, mScreens.size() - 1, retained);
+    }
+
+    private static long getRetainedEstimate(List<ScreenController> screens) {
+        long retained = 0;
+        for(int i = 0; i < screens.size(); i++) {
+            ScreenController screen = screens.get(i);
+            if(!screen.isStateReleased()) {
+                retained += screen.getRetainedMemoryEstimate();
+            }
+        }
+        return retained;
+    }
+
+    /*
+     * Release the state of the first count screens, deepest first, until we're within the budget.
+     * Returns what's still retained
+     */
+    private long releaseStates(List<ScreenController> screens, int count, long retained) {
+        for(int i = 0; i < count && retained > mMemoryBudget; i++) {
+            ScreenController screen = screens.get(i);
+            if(screen.isStateReleased()) {
+                continue;
+            }
+            // Once released the screen's estimate drops to (about) nothing, take it beforehand
+            long estimate = screen.getRetainedMemoryEstimate();
+            if(releaseState(screen)) {
+                retained -= estimate;
+            }
+        }
+        return retained;
+    }
+
+    /*
+     * Ask a buried screen to release its state, its cached view goes with it
+     */
+    private boolean releaseState(ScreenController screen) {
+        if(screen == mDisplayedScreen || !screen.releaseState()) {
+            return false;
+        }
+        View view = mViewCache.take(screen);
+        if(view != null) {
+            screen.saveViewState(view);
+            screen.releaseObtainedViews(true);
+        }
+        releaseStackView(screen);
+        return true;
+    }
+
+    /*
+     * Snapshot every tree we're holding so collectStack() picks their state up. Hidden trees are
+     * snapshotted as they are, the displayed one can still change so it isn't taken as final
+     */
+    private void saveViewStates() {
+        if(mDisplayedScreen != null && mView != null) {
+            mDisplayedScreen.saveShownViewState(mView);
+        }
+        mViewCache.visit(mViewStateSaver);
+        if(mSwitchedView != null) {
+            mSwitchedScreen.saveViewState(mSwitchedView);
+        }
+        if(!mInactiveStacks.isEmpty()) {
+            for(Stack stack : mInactiveStacks.values()) {
+                if(stack.mTopView != null) {
+                    stack.mScreens.get(stack.mScreens.size() - 1).saveViewState(stack.mTopView);
+                }
+            }
+        }
+    }
+
+    /*
+     * Collect a stack's saved state, screens not yet restored after process death first
+     */
+    private ScreenStackState collectStack(List<ScreenController> screens, ScreenStackState unrestored) {
+        ScreenStackState state = new ScreenStackState();
+        for(int i = 0; i < unrestored.size(); i++) {
+            state.add(unrestored.getClassName(i), unrestored.getData(i), unrestored.getViewState(i));
+        }
+        for(ScreenController screen : screens) {
+            Bundle data = screen.saveState().getBundle();
+            state.add(screen.getClass().getName(), data, screen.getViewState());
+            if(mPersistenceListener != null) {
+                mPersistenceListener.onScreenSaved(screen.getClass(), ScreenStackState.measure(data));
+            }
+        }
+        return state;
+    }
+
+    /*
+     * Inactive stack the screen is the top of, null if it isn't the top of one
+     */
+    private Stack findInactiveStack(ScreenController screen) {
+        if(!mInactiveStacks.isEmpty()) {
+            for(Stack stack : mInactiveStacks.values()) {
+                List<ScreenController> screens = stack.mScreens;
+                if(!screens.isEmpty() && screens.get(screens.size() - 1) == screen) {
+                    return stack;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Hand an unshown switched-to view back to the stack it's the top of, or to the view cache if
+     * it's been covered. Released if its screen has gone
+     */
+    private void flushSwitchedView() {
+        if(mSwitchedView == null) {
+            return;
+        }
+        ScreenController screen = mSwitchedScreen;
+        View view = mSwitchedView;
+        mSwitchedScreen = null;
+        mSwitchedView = null;
+
+        Stack stack = findInactiveStack(screen);
+        if(stack != null) {
+            stack.mTopView = view;
+        } else if(isInStack(screen)) {
+            mViewCache.put(screen, view);
+        } else {
+            screen.releaseObtainedViews(true);
+        }
+    }
+
+    /*
+     * Drop a screen's view if it's kept aside as a stack top, snapshotting its state
+     */
+    private void releaseStackView(ScreenController screen) {
+        View view = null;
+        if(screen == mSwitchedScreen) {
+            view = mSwitchedView;
+            mSwitchedScreen = null;
+            mSwitchedView = null;
+        } else {
+            Stack stack = findInactiveStack(screen);
+            if(stack != null) {
+                view = stack.mTopView;
+                stack.mTopView = null;
+            }
+        }
+        if(view != null) {
+            screen.saveViewState(view);
+            screen.releaseObtainedViews(true);
+        }
+    }
+
+    /*
+     * Drop every view kept aside as a stack top, snapshotting their state. Their sub-layouts are
+     * recycled unless the context is going
+     */
+    private void releaseStackViews(boolean recycle) {
+        if(mSwitchedView != null) {
+            mSwitchedScreen.saveViewState(mSwitchedView);
+            mSwitchedScreen.releaseObtainedViews(recycle);
+            mSwitchedScreen = null;
+            mSwitchedView = null;
+        }
+        if(!mInactiveStacks.isEmpty()) {
+            for(Stack stack : mInactiveStacks.values()) {
+                if(stack.mTopView != null) {
+                    ScreenController top = stack.mScreens.get(stack.mScreens.size() - 1);
+                    top.saveViewState(stack.mTopView);
+                    top.releaseObtainedViews(recycle);
+                    stack.mTopView = null;
+                }
+            }
+        }
+    }
+
+    /*
+     * True if a screen is in any stack, not just the one on screen
+     */
+    private boolean isInStack(ScreenController screen) {
+        if(mScreens.contains(screen)) {
+            return true;
+        }
+        if(!mInactiveStacks.isEmpty()) {
+            for(Stack stack : mInactiveStacks.values()) {
+                if(stack.mScreens.contains(screen)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+     * If the stack has been popped down to screens restored after process death, instantiate the
+     * next one. Its saved data is handed over when it's revealed
+     */
+    private void restoreTop() {
+        if(!mScreens.isEmpty() || mUnrestored.size() == 0) {
+            return;
+        }
+
+        int top = mUnrestored.size() - 1;
+        String className = mUnrestored.getClassName(top);
+        Bundle data = mUnrestored.getData(top);
+        SparseArray<Parcelable> viewState = mUnrestored.getViewState(top);
+        mUnrestored.truncate(top);
+
+        ScreenController screen;
+        try {
+            screen = (ScreenController) Class.forName(className).newInstance();
+        } catch(Exception e) {
+            throw new IllegalStateException("Screens need a public no-arg constructor to be restored: " + className, e);
+        }
+        screen.setReleasedState(data != null ? new ScreenControllerData(data) : null);
+        screen.setViewState(viewState);
+        mScreens.add(screen);
+        screen.setScreenManager(ScreenControllerManager.this);
+    }
+
+    /*
+     * Called for every screen that leaves the stack
+     */
+    private void onScreenRemoved(ScreenController screen) {
+        // Results go to screens still in a stack, a screen leaving takes its pending result with it
+        ScreenController resultTarget = screen.sendResult();
+        if(resultTarget != null && !isInStack(resultTarget)) {
+            resultTarget.dropResult();
+        }
+        screen.dropResult();
+
+        if(mViewCache.take(screen) != null) {
+            screen.releaseObtainedViews(true);
+        }
+        if(mService != null) {
+            mService.cancelAll(screen);
+        }
+        mScheduler.cancel(screen);
+        if(mLeakDetector != null) {
+            mLeakDetector.onScreenRemoved(screen);
+        }
+    }
+
+    /*
+     * Called after every stack op. Renders straight away if nothing's animating, otherwise the
+     * transition in flight is jumped to its end and a single render is posted that every op
+     * arriving before it runs gets collapsed into
+     */
+    private void requestRender() {
+        if(mMetrics != null && mOpStartNanos == 0) {
+            mOpStartNanos = System.nanoTime();
+        }
+        enforceMemoryBudget();
+
+        // No Activity - top screen will be shown when we get our next context
+        if(isInConfigChange() || mRenderPending) {
+            return;
+        }
+
+        if(mTransitions.isRunning()) {
+            mTransitions.fastForward();
+            mRenderPending = true;
+            mHost.post(mRender, 0);
+            return;
+        }
+        render();
+    }
+
+    /*
+     * Transition from whatever's displayed to the top of the stack. Only the top screen is
+     * inflated, however many ops happened since the last render
+     */
+    private void render() {
+        long opStartNanos = mOpStartNanos;
+        mOpStartNanos = 0;
+
+        ScreenController target = peekScreen();
+        if(isInConfigChange()) {
+            return;
+        }
+        if(target == mDisplayedScreen) {
+            // Screens above it went without it being hidden, e.g. setStack()
+            flushSwitchedView();
+            if(target != null) {
+                target.deliverResult();
+            }
+            return;
+        }
+
+        // If the displayed screen is still in a stack it's being covered (or we've switched
+        // stacks), otherwise it was popped
+        ScreenController outgoingScreen = mDisplayedScreen;
+        View outgoing = mView;
+        boolean push = outgoingScreen == null || isInStack(outgoingScreen);
+
+        View incoming = null;
+        if(target != null) {
+            target.restoreState();
+            if(target == mInflatedScreen) {
+                // Inflated on a worker, a pre-inflated tree isn't needed after all
+                mPreInflated.remove(target);
+                incoming = mInflatedView;
+                target.restoreViewState(incoming);
+            } else {
+                incoming = getOrCreateView(target, push);
+            }
+        }
+        mInflatedScreen = null;
+        mInflatedView = null;
+        flushSwitchedView();
+
+        mDisplayedScreen = target;
+        setCurrentView(incoming);
+        if(target != null) {
+            target.onViewShown();
+        }
+
+        // The screen on top drives the transition - pushed screen or the one being popped. Switching
+        // to an empty stack has nothing to push, the screen being hidden drives
+        ScreenController driving = push && target != null ? target : outgoingScreen;
+        Class<? extends ScreenController> drivingClass = driving.getClass();
+        if(driving.useHardwareTransition()) {
+            mTransitions.transitionWithLayers(drivingClass, incoming, outgoingScreen, outgoing, push,
+                    driving.getTransitionDuration(), driving.getTransitionSlide());
+        } else if(push) {
+            mTransitions.transition(drivingClass, incoming, target != null ? target.getOnPushAnimation() : null,
+                    outgoingScreen, outgoing, outgoingScreen != null ? outgoingScreen.getOnHiddenAnimaton() : null, true);
+        } else {
+            mTransitions.transition(drivingClass, incoming, target != null ? target.getOnRevealAnimation() : null,
+                    outgoingScreen, outgoing, outgoingScreen.getOnPopAnimation(), false);
+        }
+
+        if(mTransitions.isRunning()) {
+            mScheduler.onTransitionStarted();
+        }
+        if(mJankDetector != null && mTransitions.isRunning()) {
+            mJankDetector.start(outgoingScreen != null ? outgoingScreen.getClass() : null,
+                    target != null ? target.getClass() : null);
+        }
+
+        // Tell screen the view has been added, then hand it any result from the screen it covered
+        if(target != null) {
+            target.onSetActive();
+            if(mMetrics != null && opStartNanos != 0) {
+                mMetrics.record(target.getClass(), ScreenMetrics.EVENT_TIME_TO_ACTIVE, System.nanoTime() - opStartNanos);
+            }
+            target.deliverResult();
+        }
+        schedulePreInflate();
+    }
+
+    /*
+     * Reveal the view kept with a stack we've switched to or a screen's cached view if we have
+     * one, then try a pre-inflated one, otherwise inflate it. Pushes count towards the
+     * pre-inflation hit/miss counts
+     */
+    private View getOrCreateView(ScreenController screen, boolean push) {
+        if(screen == mSwitchedScreen) {
+            View view = mSwitchedView;
+            mSwitchedScreen = null;
+            mSwitchedView = null;
+            return view;
+        }
+
+        View view = mViewCache.take(screen);
+        if(view != null) {
+            return view;
+        }
+
+        view = mPreInflated.take(screen);
+        if(view != null) {
+            mPreInflateHits++;
+        } else {
+            if(push) {
+                mPreInflateMisses++;
+            }
+            view = inflate(screen);
+        }
+        screen.restoreViewState(view);
+        return view;
+    }
+
+    /*
+     * Start pre-inflating the top screen's likely successors from the first one, next time main
+     * is idle
+     */
+    private void schedulePreInflate() {
+        mPreInflateIndex = 0;
+        if(!mPreInflateScheduled && !isInConfigChange()) {
+            mPreInflateScheduled = true;
+            mHost.addIdleHandler(mPreInflater);
+        }
+    }
+
+    /*
+     * Pre-inflate the next likely successor of the top screen. Waits while a transition or render
+     * is in flight so idle frames mid-animation aren't spent inflating. Returns true if there's
+     * more to do
+     */
+    private boolean preInflateNext() {
+        if(isInConfigChange()) {
+            return false;
+        }
+        if(mTransitions.isRunning() || mRenderPending) {
+            return true;
+        }
+
+        ScreenController top = peekScreen();
+        List<? extends ScreenController> successors = top != null ? top.getLikelySuccessors() : null;
+        if(successors == null) {
+            return false;
+        }
+
+        // One inflation per idle pass, each successor is only tried once per top screen so
+        // anything the cache won't hold isn't inflated over and over
+        while(mPreInflateIndex < successors.size()) {
+            ScreenController successor = successors.get(mPreInflateIndex++);
+            if(successor == null || mPreInflated.contains(successor) || isInStack(successor)) {
+                continue;
+            }
+            successor.setScreenManager(ScreenControllerManager.this);
+            View view = inflate(successor);
+            if(view == null) {
+                return false;
+            }
+            mPreInflated.put(successor, view);
+            return mPreInflateIndex < successors.size();
+        }
+        return false;
+    }
+
+    /*
+     * Create a screen's view through the host, timing it if metrics are on
+     */
+    private View inflate(ScreenController screen) {
+        if(mMetrics == null) {
+            return mHost.inflate(screen);
+        }
+        long start = System.nanoTime();
+        View view = mHost.inflate(screen);
+        mMetrics.record(screen.getClass(), ScreenMetrics.EVENT_INFLATE, System.nanoTime() - start);
+        return view;
+    }
+
+    /*
+     * True if a context we're letting go of should be collected soon. An Activity that's only
+     * paused is still alive and would be reported as a leak
+     */
+    private static boolean isGoingAway(Context context) {
+        if(!(context instanceof Activity)) {
+            return true;
+        }
+        Activity activity = (Activity) context;
+        return activity.isFinishing() || activity.isChangingConfigurations()
+                || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && activity.isDestroyed());
+    }
+
+    private Context getHostContext() {
+        return mHost != null ? mHost.getContext() : null;
+    }
+
+    /*
+     * True if a view was created in the current host's context, directly or through a context
+     * that gets re-pointed across configuration changes
+     */
+    private boolean isCurrent(View view) {
+        Context context = view.getContext();
+        if(context instanceof MutableContextWrapper) {
+            context = ((MutableContextWrapper) context).getBaseContext();
+        }
+        return context != null && context == getHostContext();
+    }
+
+    /*
+     * Context is about to go - hold onto the top screen's tree if it can absorb some changes.
+     * Its context is pointed at the Application in the meantime so the old Activity can go.
+     * Returns true if the tree was retained
+     */
+    private boolean retainView() {
+        Context context = getHostContext();
+        if(mDisplayedScreen == null || mView == null || context == null
+                || mDisplayedScreen.getAbsorbedConfigChanges() == 0
+                || !(mView.getContext() instanceof MutableContextWrapper)) {
+            return false;
+        }
+        mRetainedScreen = mDisplayedScreen;
+        mRetainedView = mView;
+        mRetainedConfig = new Configuration(context.getResources().getConfiguration());
+        ((MutableContextWrapper) mView.getContext()).setBaseContext(context.getApplicationContext());
+        return true;
+    }
+
+    /*
+     * New context - if the retained tree's screen is still on top and everything that changed is
+     * something it absorbs, move the tree into the new Activity. Returns true if it was reused
+     */
+    private boolean reuseRetainedView() {
+        if(mRetainedView == null) {
+            return false;
+        }
+
+        Context context = mHost.getContext();
+        boolean reuse = context != null && mRetainedScreen == peekScreen();
+        if(reuse) {
+            int changes = context.getResources().getConfiguration().diff(mRetainedConfig);
+            reuse = (changes & ~mRetainedScreen.getAbsorbedConfigChanges()) == 0;
+        }
+        if(!reuse) {
+            discardRetainedView();
+            return false;
+        }
+
+        ((MutableContextWrapper) mRetainedView.getContext()).setBaseContext(context);
+        mDisplayedScreen = mRetainedScreen;
+        setCurrentView(mRetainedView);
+        mTransitions.show(mView);
+        mRetainedScreen = null;
+        mRetainedView = null;
+        mRetainedConfig = null;
+        return true;
+    }
+
+    /*
+     * Drop the retained tree, snapshotting its state for the tree that replaces it
+     */
+    private void discardRetainedView() {
+        if(mRetainedView != null) {
+            mRetainedScreen.saveViewState(mRetainedView);
+            mRetainedScreen.releaseObtainedViews(false);
+        }
+        mRetainedScreen = null;
+        mRetainedView = null;
+        mRetainedConfig = null;
+    }
+
+    private void updateTransitionObserver() {
+        boolean observe = mMetrics != null || mTransitionObserver != null || mJankDetector != null;
+        mTransitions.setTransitionObserver(observe ? mTransitionRelay : null);
+    }
+
+    /*
+     * Change the view on display, anything looked up from the old one is invalidated
+     */
+    private void setCurrentView(View view) {
+        mView = view;
+        mViewIndex.setRoot(view);
+    }
+
+    private void setContentView() {
+        mHost.attach(mTransitions);
+        if(reuseRetainedView()) {
+            return;
+        }
+        if(!mScreens.isEmpty()) {
+            mDisplayedScreen = peekScreen();
+            mDisplayedScreen.restoreState();
+            setCurrentView(inflate(mDisplayedScreen));
+            mDisplayedScreen.restoreViewState(mView);
+            mTransitions.show(mView);
+            mDisplayedScreen.onViewShown();
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: OnPushListener
+     *
+     * Description:
+     * Told once a pushScreenAsync() has been committed and which path it went down
+     ------------------------------------------------------------------------------------------*/
+
+    public interface OnPushListener {
+
+        /**
+         * @param screen    The screen that's now on top of the stack
+         * @param async     True if its view was inflated on the worker, false if it was inflated on
+         *                  main (screen can't be inflated off main, inflation failed or no
+         *                  worker started on it in time)
+         */
+        void onPushed(ScreenController screen, boolean async);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: PersistenceListener
+     *
+     * Description:
+     * Reports the cost of saving / restoring the stack across process death
+     ------------------------------------------------------------------------------------------*/
+
+    public interface PersistenceListener {
+
+        /**
+         * @param screenClass   Class of a screen that's just been saved
+         * @param bytes         Parcelled size of the data it saved
+         */
+        void onScreenSaved(Class<? extends ScreenController> screenClass, int bytes);
+
+        /**
+         * @param screens       Number of screens saved
+         * @param totalBytes    Parcelled size of the whole saved stack
+         */
+        void onStackSaved(int screens, int totalBytes);
+
+        /**
+         * @param screens       Number of screens in the restored stack
+         * @param restoreNanos  Time from starting the restore to the top screen being displayed
+         */
+        void onStackRestored(int screens, long restoreNanos);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: Stack
+     *
+     * Description:
+     * A stack that isn't on screen, swapped in and out of mScreens / mUnrestored by switchStack()
+     ------------------------------------------------------------------------------------------*/
+
+    private static class Stack {
+
+        private List<ScreenController> mScreens = new ArrayList<>();
+
+        private ScreenStackState mUnrestored = new ScreenStackState();
+
+        /**
+         * Detached view of the top screen, null if it wasn't displayed when we left or was released
+         */
+        private View mTopView;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: AsyncPush
+     *
+     * Description:
+     * A single pushScreenAsync() call. Inflates on the worker and posts the view back to main. If
+     * the timeout gets to main before the worker has started, the worker is called off and the push
+     * is committed to inflate on main. Once the worker has started the timeout leaves it be, so
+     * onCreateView() never runs on two threads at once
+     ------------------------------------------------------------------------------------------*/
+
+    private class AsyncPush implements Runnable {
+
+        private final ScreenController mScreen;
+
+        /**
+         * Host the push was started in, the worker posts back through it even if it's detached
+         */
+        private final ScreenHost mPostTo;
+
+        private final LayoutInflater mInflater;
+
+        private final OnPushListener mListener;
+
+        /**
+         * Only touched on main, set once the push has been committed by either path
+         */
+        private boolean mCommitted;
+
+        /**
+         * Set by the worker when it starts inflating, and by the timeout if it got there first.
+         * Guarded by this
+         */
+        private boolean mStarted;
+        private boolean mAbandoned;
+
+        /**
+         * Posted to main by the worker once inflation has finished
+         */
+        private final Runnable mInflated = new Runnable() {
+            public void run() {
+                commit(mInflatedView);
+            }
+        };
+
+        /**
+         * Posted to main with a delay, falls back to inflating synchronously if the worker hasn't
+         * started. Otherwise the worker's view is on its way
+         */
+        private final Runnable mTimeout = new Runnable() {
+            public void run() {
+                synchronized(AsyncPush.this) {
+                    if(mStarted) {
+                        return;
+                    }
+                    mAbandoned = true;
+                }
+                commit(null);
+            }
+        };
+
+        /**
+         * View inflated by the worker, handed over to main via the host
+         */
+        private View mInflatedView;
+
+        /**
+         * How long the worker took to inflate, recorded on main if the view gets used
+         */
+        private long mInflateNanos;
+
+        private AsyncPush(ScreenController screen, ScreenHost postTo, LayoutInflater inflater, OnPushListener listener) {
+            mScreen = screen;
+            mPostTo = postTo;
+            mInflater = inflater;
+            mListener = listener;
+        }
+
+        /**
+         * Worker thread
+         */
+        public void run() {
+            synchronized(this) {
+                if(mAbandoned) {
+                    return;
+                }
+                mStarted = true;
+            }
+
+            long start = System.nanoTime();
+            try {
+                mInflatedView = mScreen.createView(mInflater);
+                mInflateNanos = System.nanoTime() - start;
+            } catch(RuntimeException e) {
+                // Not safe to inflate off main after all, the main thread will try again
+                mInflatedView = null;
+            }
+            mPostTo.post(mInflated, 0);
+        }
+
+        private void commit(View view) {
+            if(mCommitted) {
+                return;
+            }
+            mCommitted = true;
+            mPostTo.removeCallbacks(mTimeout);
+
+            // Context changed while we were inflating - view belongs to a dead Activity
+            if(view != null && !isCurrent(view)) {
+                view = null;
+            }
+
+            if(view != null && mMetrics != null) {
+                mMetrics.record(mScreen.getClass(), ScreenMetrics.EVENT_INFLATE, mInflateNanos);
+            }
+            commitPush(mScreen, view);
+            if(mListener != null) {
+                mListener.onPushed(mScreen, view != null);
+            }
         }
     }
 
@@ -287,14 +1908,14 @@ public class ScreenControllerManager {
     public class SafeRefView implements SafeRef<View> {
 
         /**
-         * WeakReference to context when we saved view
+         * Generation of mViewIndex when mSlot was looked up
          */
-        private WeakReference<Context> mSavedContext;
+        private int mGeneration;
 
         /**
-         * WeakReference to view
+         * Slot of our view in mViewIndex, negative if it wasn't found
          */
-        private WeakReference<View> mViewWeakRef;
+        private int mSlot;
 
         /**
          * ID of our view
@@ -303,8 +1924,7 @@ public class ScreenControllerManager {
 
         public SafeRefView(int id) {
             mId = id;
-            mViewWeakRef = new WeakReference<View>(mView.findViewById(mId));
-            mSavedContext = new WeakReference<Context>(mContext);
+            mGeneration = mViewIndex.getGeneration() - 1;
         }
 
         /**
@@ -314,12 +1934,12 @@ public class ScreenControllerManager {
             // Can only grab this on main thread
             assertMainThread("getView() - Non main thread would you mean you could access an orphan view");
 
-            View v  = mViewWeakRef.get();
-            if(v == null || mContext != null && mSavedContext.get() != mContext) {
-                mViewWeakRef = new WeakReference<View>(v = mView.findViewById(mId));
-                mSavedContext = new WeakReference<Context>(mContext);
+            // Tree has changed since we last looked, find our slot again
+            if(mGeneration != mViewIndex.getGeneration()) {
+                mSlot = mViewIndex.indexOfId(mId);
+                mGeneration = mViewIndex.getGeneration();
             }
-            return v;
+            return mSlot < 0 ? null : mViewIndex.viewAt(mSlot);
         }
     }
 
@@ -334,7 +1954,7 @@ public class ScreenControllerManager {
 
         public Context get() {
             assertMainThread("getContext() - Non main thread would you mean you could access a destroyed Context");
-            return mContext;
+            return getHostContext();
         }
     }
 }
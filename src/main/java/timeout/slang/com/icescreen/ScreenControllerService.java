@@ -1,7 +1,334 @@
 package timeout.slang.com.icescreen;
 
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * Created by MrLenovo on 20/02/2016.
+ * Background work for screens, owned by the ScreenManager so it survives configuration changes.
+ * Tasks are scoped to the screen that submitted them - they're cancelled when it's removed from the
+ * stack, and their results are only delivered on main while there's a live Activity. Results that
+ * complete close together are delivered in one go on the next frame rather than a post each.
+ * Everything goes through the manager's ScreenHost so the service runs headless too
  */
 public class ScreenControllerService {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Default number of worker threads
+     */
+    public static final int DEFAULT_THREADS = 2;
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Manager we belong to, tells us whether there's a live context
+     */
+    private final ScreenControllerManager mManager;
+
+    /**
+     * Fixed size pool the tasks run on
+     */
+    private final ExecutorService mExecutor;
+
+    /**
+     * Host we get back to main through, the last one the manager had. Kept after it's detached so
+     * workers can still post to it, null until the manager first has a context
+     */
+    private volatile ScreenHost mHost;
+
+    /**
+     * Outstanding tasks per screen, main thread only
+     */
+    private final IdentityHashMap<ScreenController, List<Task<?>>> mTasks = new IdentityHashMap<>();
+
+    /**
+     * Tasks that have finished on a worker and are waiting to be delivered
+     */
+    private final ConcurrentLinkedQueue<Task<?>> mCompleted = new ConcurrentLinkedQueue<>();
+
+    /**
+     * True while mScheduleDelivery or mDeliver is posted
+     */
+    private final AtomicBoolean mDeliveryScheduled = new AtomicBoolean();
+
+    /**
+     * Posted by a worker, registers mDeliver for the next frame. Results completing between
+     * contexts wait for onContextAvailable()
+     */
+    private final Runnable mScheduleDelivery = new Runnable() {
+        public void run() {
+            if(mManager.isInConfigChange()) {
+                mDeliveryScheduled.set(false);
+                return;
+            }
+            mHost.postFrameCallback(mDeliver);
+        }
+    };
+
+    /**
+     * Delivers every completed task
+     */
+    private final Choreographer.FrameCallback mDeliver = new Choreographer.FrameCallback() {
+        public void doFrame(long frameTimeNanos) {
+            deliverCompleted();
+        }
+    };
+
+    /*------------------------------------------------------------------------------------------
+     * Constructor
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Results are delivered once the manager hands over its host with onContextAvailable()
+     * @param manager       Manager that owns this service
+     * @param threads       Number of worker threads
+     */
+    public ScreenControllerService(ScreenControllerManager manager, int threads) {
+        mManager = manager;
+
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "IceScreen-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Run a task on a worker, scoped to the lifetime of a screen
+     * @param owner     Screen the task belongs to
+     * @param task      Task to run
+     * @return          The task, so it can be cancelled
+     */
+    public <T> Task<T> submit(ScreenController owner, Task<T> task) {
+        assertMainThread("submit()");
+
+        List<Task<?>> tasks = mTasks.get(owner);
+        if(tasks == null) {
+            tasks = new ArrayList<>();
+            mTasks.put(owner, tasks);
+        }
+        tasks.add(task);
+
+        task.mOwner = owner;
+        task.mService = this;
+        task.mFuture = mExecutor.submit(task);
+        return task;
+    }
+
+    /**
+     * Run something on a worker that isn't tied to a screen
+     * @param runnable  Work to run
+     */
+    public void execute(Runnable runnable) {
+        mExecutor.execute(runnable);
+    }
+
+    /**
+     * Cancel every outstanding task a screen submitted
+     * @param owner     Screen whose tasks should be cancelled
+     */
+    public void cancelAll(ScreenController owner) {
+        assertMainThread("cancelAll()");
+
+        List<Task<?>> tasks = mTasks.remove(owner);
+        if(tasks != null) {
+            for(Task<?> task : tasks) {
+                task.cancelInternal();
+            }
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Package Methods - Called by ScreenManager
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * The manager has a context again, delivers anything held during the change
+     * @param host      Host the manager now displays in
+     */
+    void onContextAvailable(ScreenHost host) {
+        mHost = host;
+        if(!mCompleted.isEmpty()) {
+            scheduleDelivery();
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /*
+     * Worker thread - queue a finished task and make sure a delivery is on its way to main
+     */
+    private void onTaskComplete(Task<?> task) {
+        mCompleted.add(task);
+        scheduleDelivery();
+    }
+
+    /*
+     * Any thread. With no host yet the results wait for onContextAvailable()
+     */
+    private void scheduleDelivery() {
+        ScreenHost host = mHost;
+        if(host != null && mDeliveryScheduled.compareAndSet(false, true)) {
+            host.post(mScheduleDelivery, 0);
+        }
+    }
+
+    /*
+     * Main thread - hand every completed task back to its screen, or hold them if there's no context
+     */
+    private void deliverCompleted() {
+        mDeliveryScheduled.set(false);
+        if(mManager.isInConfigChange()) {
+            return;
+        }
+
+        Task<?> task;
+        while((task = mCompleted.poll()) != null) {
+            if(task.isCancelled()) {
+                continue;
+            }
+            removeTask(task);
+            task.deliver();
+        }
+    }
+
+    private void removeTask(Task<?> task) {
+        List<Task<?>> tasks = mTasks.get(task.mOwner);
+        if(tasks != null) {
+            tasks.remove(task);
+            if(tasks.isEmpty()) {
+                mTasks.remove(task.mOwner);
+            }
+        }
+    }
+
+    /*
+     * Main is whichever thread the manager's host says it is
+     */
+    private void assertMainThread(String msg) {
+        if(!mManager.isMainThread()) {
+            throw new IllegalAccessError("Call on main thread: " + msg);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: Task<T>
+     *
+     * Description:
+     * A unit of background work. doInBackground() runs on a worker, onResult() / onError() on main
+     * once the owning screen has a live context. Don't hold Views or Contexts in a Task
+     ------------------------------------------------------------------------------------------*/
+
+    public static abstract class Task<T> implements Runnable {
+
+        private ScreenController mOwner;
+
+        private ScreenControllerService mService;
+
+        private Future<?> mFuture;
+
+        private volatile boolean mCancelled;
+
+        private T mResult;
+
+        private Exception mError;
+
+        /**
+         * Worker thread
+         */
+        public final void run() {
+            if(mCancelled) {
+                return;
+            }
+            try {
+                mResult = doInBackground();
+            } catch(Exception e) {
+                mError = e;
+            }
+            if(!mCancelled) {
+                mService.onTaskComplete(this);
+            }
+        }
+
+        /**
+         * Stop the task, its result won't be delivered. Main thread only
+         */
+        public void cancel() {
+            if(mService != null) {
+                mService.removeTask(this);
+            }
+            cancelInternal();
+        }
+
+        /**
+         * @return      True if the task has been cancelled, check this in long running work
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Worker thread
+         * @return      Result handed to onResult()
+         */
+        protected abstract T doInBackground() throws Exception;
+
+        /**
+         * Main thread, only called while the owning screen is in the stack and has a context
+         * @param result    What doInBackground() returned
+         */
+        protected void onResult(T result) { }
+
+        /**
+         * Main thread, only called while the owning screen is in the stack and has a context
+         * @param e         What doInBackground() threw
+         */
+        protected void onError(Exception e) { }
+
+        private void cancelInternal() {
+            mCancelled = true;
+            if(mFuture != null) {
+                mFuture.cancel(true);
+            }
+        }
+
+        private void deliver() {
+            if(mError != null) {
+                onError(mError);
+            } else {
+                onResult(mResult);
+            }
+            mResult = null;
+            mError = null;
+        }
+    }
 }
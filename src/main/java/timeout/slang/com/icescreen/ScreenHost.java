@@ -0,0 +1,89 @@
+package timeout.slang.com.icescreen;
+
+import android.content.Context;
+import android.os.MessageQueue;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.View;
+
+/**
+ * The rendering side of a ScreenManager - where views are inflated and displayed, and which
+ * thread is main. ActivityScreenHost is the real thing, HeadlessScreenHost runs the stack logic
+ * with no views at all so it can be tested and benchmarked on a plain JVM
+ */
+public interface ScreenHost {
+
+    /**
+     * @return      Context views are inflated with, null if this host doesn't create views
+     */
+    Context getContext();
+
+    /**
+     * @return      True if the calling thread is the one screens and the manager live on
+     */
+    boolean isMainThread();
+
+    /**
+     * Run something on the main thread. Can be called from any thread and must keep working after
+     * detach()
+     * @param runnable  What to run
+     * @param delayMs   Delay before running it, 0 for as soon as possible
+     */
+    void post(Runnable runnable, long delayMs);
+
+    /**
+     * Cancel anything posted with post() that hasn't run yet, main thread only
+     * @param runnable  What to cancel
+     */
+    void removeCallbacks(Runnable runnable);
+
+    /**
+     * Run something at the start of the next frame
+     * @param callback  What to run
+     */
+    void postFrameCallback(Choreographer.FrameCallback callback);
+
+    /**
+     * Cancel something posted with postFrameCallback() that hasn't run yet
+     * @param callback  What to cancel
+     */
+    void removeFrameCallback(Choreographer.FrameCallback callback);
+
+    /**
+     * Run something whenever the main thread runs out of messages to handle
+     * @param handler   Kept until it returns false or is removed
+     */
+    void addIdleHandler(MessageQueue.IdleHandler handler);
+
+    /**
+     * Stop running something added with addIdleHandler()
+     * @param handler   Handler to remove
+     */
+    void removeIdleHandler(MessageQueue.IdleHandler handler);
+
+    /**
+     * Start displaying, called when the host is handed to the manager
+     * @param transitions   Engine to attach to whatever this host displays in
+     */
+    void attach(ScreenTransitionEngine transitions);
+
+    /**
+     * Let go of the context and anything displayed, the manager won't use this host to display
+     * again
+     */
+    void detach();
+
+    /**
+     * Create a screen's view on the main thread
+     * @param screen    Screen to create the view of
+     * @return          The view, null if this host doesn't create views
+     */
+    View inflate(ScreenController screen);
+
+    /**
+     * @param screen    Screen the worker will create the view of
+     * @return          An inflater a worker thread can use on its own, null if this host can't
+     *                  inflate off the main thread
+     */
+    LayoutInflater getWorkerInflater(ScreenController screen);
+}
@@ -0,0 +1,220 @@
+package timeout.slang.com.icescreen;
+
+import android.view.Choreographer;
+
+/**
+ * Watches the frames of each screen transition with a Choreographer callback and counts the ones
+ * that took longer than the vsync budget. The last N transitions are kept in a fixed size ring
+ * buffer along with the screen classes they went from/to, so pairs of screens that jank can be
+ * found on a real device without a profiler. Nothing is allocated per transition. Main thread only
+ */
+public class ScreenJankDetector implements Choreographer.FrameCallback {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Frame interval of a 60Hz display
+     */
+    public static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private final Choreographer mChoreographer;
+
+    /**
+     * A frame is janky if it took longer than this, 1.5 intervals so vsync jitter isn't counted
+     */
+    private final long mJankThresholdNanos;
+
+    /**
+     * Ring buffer, one slot per transition
+     */
+    private final Class<?>[] mFrom;
+    private final Class<?>[] mTo;
+    private final int[] mFrames;
+    private final int[] mJankFrames;
+    private final long[] mWorstFrameNanos;
+
+    /**
+     * Slot the next transition is written to, and the number of slots filled
+     */
+    private int mHead;
+    private int mSize;
+
+    /**
+     * State of the transition being watched
+     */
+    private boolean mWatching;
+    private Class<?> mCurrentFrom;
+    private Class<?> mCurrentTo;
+    private long mLastFrameNanos;
+    private int mCurrentFrames;
+    private int mCurrentJankFrames;
+    private long mCurrentWorstNanos;
+
+    /*------------------------------------------------------------------------------------------
+     * Constructor
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Must be created on the main thread
+     * @param capacity              Number of transitions to remember
+     * @param frameIntervalNanos    Display's vsync interval, e.g. from Display.getRefreshRate()
+     */
+    public ScreenJankDetector(int capacity, long frameIntervalNanos) {
+        if(capacity <= 0 || frameIntervalNanos <= 0) {
+            throw new IllegalArgumentException("Capacity and frame interval must be positive");
+        }
+        mChoreographer = Choreographer.getInstance();
+        mJankThresholdNanos = frameIntervalNanos + frameIntervalNanos / 2;
+        mFrom = new Class<?>[capacity];
+        mTo = new Class<?>[capacity];
+        mFrames = new int[capacity];
+        mJankFrames = new int[capacity];
+        mWorstFrameNanos = new long[capacity];
+    }
+
+    /**
+     * Assumes a 60Hz display
+     * @param capacity      Number of transitions to remember
+     */
+    public ScreenJankDetector(int capacity) {
+        this(capacity, DEFAULT_FRAME_INTERVAL_NANOS);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Walk the recorded transitions, oldest first
+     * @param visitor   Called once per transition
+     */
+    public void snapshot(Visitor visitor) {
+        int capacity = mFrom.length;
+        for(int i = 0; i < mSize; i++) {
+            int slot = (mHead - mSize + i + capacity) % capacity;
+            visitor.visit(mFrom[slot], mTo[slot], mFrames[slot], mJankFrames[slot], mWorstFrameNanos[slot]);
+        }
+    }
+
+    /**
+     * @return      Human readable list of the recorded transitions, one line each, oldest first
+     */
+    public String dump() {
+        final StringBuilder out = new StringBuilder();
+        snapshot(new Visitor() {
+            public void visit(Class<?> from, Class<?> to, int frames, int jankFrames, long worstFrameNanos) {
+                out.append(from != null ? from.getSimpleName() : "none").append(" -> ")
+                        .append(to != null ? to.getSimpleName() : "none")
+                        .append(" frames=").append(frames)
+                        .append(" janky=").append(jankFrames)
+                        .append(" worst=").append(worstFrameNanos / 1000).append("us\n");
+            }
+        });
+        return out.toString();
+    }
+
+    /**
+     * Forget every recorded transition
+     */
+    public void reset() {
+        for(int i = 0; i < mFrom.length; i++) {
+            mFrom[i] = null;
+            mTo[i] = null;
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Package Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Start watching frames, called by the manager as a transition begins
+     * @param from      Class of the screen being hidden/removed, may be null
+     * @param to        Class of the screen being shown, may be null
+     */
+    void start(Class<?> from, Class<?> to) {
+        stop();
+        mWatching = true;
+        mCurrentFrom = from;
+        mCurrentTo = to;
+        mLastFrameNanos = 0;
+        mCurrentFrames = 0;
+        mCurrentJankFrames = 0;
+        mCurrentWorstNanos = 0;
+        mChoreographer.postFrameCallback(this);
+    }
+
+    /**
+     * Stop watching and record the transition, called by the manager once it's finished
+     */
+    void stop() {
+        if(!mWatching) {
+            return;
+        }
+        mWatching = false;
+        mChoreographer.removeFrameCallback(this);
+
+        mFrom[mHead] = mCurrentFrom;
+        mTo[mHead] = mCurrentTo;
+        mFrames[mHead] = mCurrentFrames;
+        mJankFrames[mHead] = mCurrentJankFrames;
+        mWorstFrameNanos[mHead] = mCurrentWorstNanos;
+        mHead = (mHead + 1) % mFrom.length;
+        mSize = Math.min(mSize + 1, mFrom.length);
+
+        mCurrentFrom = null;
+        mCurrentTo = null;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * From Choreographer.FrameCallback
+     ------------------------------------------------------------------------------------------*/
+
+    public void doFrame(long frameTimeNanos) {
+        if(!mWatching) {
+            return;
+        }
+
+        // Frame time is the vsync the frame started on, so the gap between two is how long the
+        // previous frame took to get onto the screen
+        if(mLastFrameNanos != 0) {
+            long frameNanos = frameTimeNanos - mLastFrameNanos;
+            mCurrentFrames++;
+            if(frameNanos > mJankThresholdNanos) {
+                mCurrentJankFrames++;
+            }
+            if(frameNanos > mCurrentWorstNanos) {
+                mCurrentWorstNanos = frameNanos;
+            }
+        }
+        mLastFrameNanos = frameTimeNanos;
+        mChoreographer.postFrameCallback(this);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: Visitor
+     *
+     * Description:
+     * Receives one recorded transition at a time from snapshot()
+     ------------------------------------------------------------------------------------------*/
+
+    public interface Visitor {
+
+        /**
+         * @param from              Class of the screen transitioned away from, may be null
+         * @param to                Class of the screen transitioned to, may be null
+         * @param frames            Number of frames watched
+         * @param jankFrames        Frames that took more than 1.5 vsync intervals
+         * @param worstFrameNanos   Longest frame
+         */
+        void visit(Class<?> from, Class<?> to, int frames, int jankFrames, long worstFrameNanos);
+    }
+}
@@ -0,0 +1,403 @@
+package timeout.slang.com.icescreen;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.view.View;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Debug aid that catches screens holding on to Views or Contexts across a config change. When the
+ * manager lets go of an Activity that's going away (and its view tree, unless the tree is being
+ * carried over) they're watched with weak references registered on a ReferenceQueue. If they
+ * haven't been enqueued once their window has passed and a GC has been forced, the fields of every
+ * screen in a stack, then of popped screens that are still reachable, are walked reflectively
+ * looking for the path that keeps them alive, which is reported to a listener. Each Activity gets
+ * its own window, counted from when it was let go. Slow, allocates and blocks main briefly while
+ * it waits for the collector - don't ship it turned on. Main thread only
+ */
+public class ScreenLeakDetector {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Default time given to let go of an old Activity before we force a GC and look
+     */
+    public static final long DEFAULT_WINDOW_MS = 5000;
+
+    /**
+     * How many objects deep we follow fields from a screen
+     */
+    private static final int MAX_DEPTH = 6;
+
+    /**
+     * How long we wait for the collector to enqueue references after forcing a GC
+     */
+    private static final long ENQUEUE_WAIT_MS = 100;
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private final Listener mListener;
+
+    private final long mWindowMs;
+
+    /**
+     * Watches whose window hasn't passed yet
+     */
+    private final ArrayList<Watch> mWatches = new ArrayList<>();
+
+    /**
+     * Every watch's references are registered here, drained to find out what's been collected
+     */
+    private final ReferenceQueue<Object> mQueue = new ReferenceQueue<>();
+
+    /**
+     * Screens that have left the stack, scanned after the stacks in case one is still reachable
+     * and holding on
+     */
+    private final ArrayList<WeakReference<ScreenController>> mRemovedScreens = new ArrayList<>();
+
+    /**
+     * Manager whose screens get scanned
+     */
+    private ScreenControllerManager mManager;
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: Listener
+     ------------------------------------------------------------------------------------------*/
+
+    public interface Listener {
+
+        /**
+         * Something that should have been collected wasn't
+         * @param leaked        The Activity or root view
+         * @param screen        Screen holding on to it, null if no screen field leads to it (something
+         *                      outside the screens is leaking it)
+         * @param fieldPath     Path from the screen to the reference, e.g. "mAdapter.mHeader" or
+         *                      "mListeners[2].this$0", null if screen is null
+         */
+        void onLeak(Object leaked, ScreenController screen, String fieldPath);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Constructor
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * @param listener  Told about each leak
+     * @param windowMs  Time given to let go of an old Activity before we look
+     */
+    public ScreenLeakDetector(Listener listener, long windowMs) {
+        if(listener == null) {
+            throw new IllegalArgumentException("Need a listener to report leaks to");
+        }
+        mListener = listener;
+        mWindowMs = windowMs;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Package Methods - Called by ScreenManager
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * The manager has let go of a context and view tree that's going away, they should be
+     * collected within the window from now
+     * @param manager   Manager whose screens might be holding on
+     * @param host      Host that was just detached, only used to post the check
+     * @param context   Old context, may be null
+     * @param root      Old root view, null if there wasn't one or it's being carried over
+     */
+    void watch(ScreenControllerManager manager, ScreenHost host, Object context, View root) {
+        if(context == null && root == null) {
+            return;
+        }
+        mManager = manager;
+        Watch watch = new Watch(host, context, root);
+        mWatches.add(watch);
+        host.post(watch, mWindowMs);
+    }
+
+    /**
+     * A screen has left the stack, if it's kept alive it might be what's holding on
+     * @param screen    Screen that was removed
+     */
+    void onScreenRemoved(ScreenController screen) {
+        pruneRemovedScreens();
+        mRemovedScreens.add(new WeakReference<>(screen));
+    }
+
+    /**
+     * Stop watching, anything pending is forgotten
+     */
+    void cancel() {
+        for(int i = 0; i < mWatches.size(); i++) {
+            Watch watch = mWatches.get(i);
+            watch.mHost.removeCallbacks(watch);
+        }
+        mWatches.clear();
+        mRemovedScreens.clear();
+        mManager = null;
+        while(mQueue.poll() != null) {
+            // Forget anything collected in the meantime
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /*
+     * A watch's window has passed, report whatever it's watching that's still around. Each leak is
+     * reported once
+     */
+    private void check(Watch watch) {
+        drainQueue();
+        if(watch.isAlive()) {
+            // Give the collector every chance before blaming anyone
+            Runtime.getRuntime().gc();
+            System.runFinalization();
+            Runtime.getRuntime().gc();
+            awaitCollected(watch);
+        }
+        mWatches.remove(watch);
+        if(!watch.isAlive() || mManager == null) {
+            return;
+        }
+
+        // Screens in a stack first, then popped ones something else is keeping alive
+        ArrayList<ScreenController> screens = new ArrayList<>();
+        mManager.collectScreens(screens);
+        for(int i = 0; i < mRemovedScreens.size(); i++) {
+            ScreenController screen = mRemovedScreens.get(i).get();
+            if(screen != null && !screens.contains(screen)) {
+                screens.add(screen);
+            }
+        }
+
+        Object context = watch.mContext != null ? watch.mContext.get() : null;
+        if(context != null) {
+            report(context, screens);
+        }
+        Object root = watch.mRoot != null ? watch.mRoot.get() : null;
+        if(root != null) {
+            report(root, screens);
+        }
+    }
+
+    /*
+     * Wait for the collector to enqueue a watch's references, gives up after ENQUEUE_WAIT_MS
+     */
+    private void awaitCollected(Watch watch) {
+        long deadline = System.nanoTime() + ENQUEUE_WAIT_MS * 1000000;
+        while(watch.isAlive()) {
+            long remainingMs = (deadline - System.nanoTime()) / 1000000;
+            if(remainingMs <= 0) {
+                return;
+            }
+            Reference<?> ref;
+            try {
+                ref = mQueue.remove(remainingMs);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if(ref == null) {
+                return;
+            }
+            onCollected(ref);
+        }
+    }
+
+    /*
+     * Forget every reference the collector has enqueued so far
+     */
+    private void drainQueue() {
+        Reference<?> ref;
+        while((ref = mQueue.poll()) != null) {
+            onCollected(ref);
+        }
+    }
+
+    private void onCollected(Reference<?> ref) {
+        for(int i = 0; i < mWatches.size(); i++) {
+            mWatches.get(i).onCollected(ref);
+        }
+    }
+
+    private void pruneRemovedScreens() {
+        for(int i = mRemovedScreens.size() - 1; i >= 0; i--) {
+            if(mRemovedScreens.get(i).get() == null) {
+                mRemovedScreens.remove(i);
+            }
+        }
+    }
+
+    private void report(Object leaked, ArrayList<ScreenController> screens) {
+        IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<>();
+        for(int i = 0; i < screens.size(); i++) {
+            ScreenController screen = screens.get(i);
+            visited.put(screen, Boolean.TRUE);
+            String path = findPath(screen, leaked, null, 0, visited);
+            if(path != null) {
+                mListener.onLeak(leaked, screen, path);
+                return;
+            }
+        }
+        mListener.onLeak(leaked, null, null);
+    }
+
+    /*
+     * Depth first search of an object's instance fields for a reference to (or into) leaked
+     */
+    private static String findPath(Object object, Object leaked, String path, int depth,
+                                   IdentityHashMap<Object, Boolean> visited) {
+        if(object instanceof Object[]) {
+            Object[] array = (Object[]) object;
+            for(int i = 0; i < array.length; i++) {
+                String found = follow(array[i], leaked, path + "[" + i + "]", depth, visited);
+                if(found != null) {
+                    return found;
+                }
+            }
+            return null;
+        }
+        if(object instanceof Collection && isPlatformClass(object.getClass())) {
+            Iterator<?> it = ((Collection<?>) object).iterator();
+            for(int i = 0; it.hasNext(); i++) {
+                String found = follow(it.next(), leaked, path + "[" + i + "]", depth, visited);
+                if(found != null) {
+                    return found;
+                }
+            }
+            return null;
+        }
+        if(object instanceof Map && isPlatformClass(object.getClass())) {
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+                String found = follow(entry.getValue(), leaked, path + "[" + entry.getKey() + "]", depth, visited);
+                if(found != null) {
+                    return found;
+                }
+            }
+            return null;
+        }
+
+        for(Class<?> c = object.getClass(); c != null && !isPlatformClass(c); c = c.getSuperclass()) {
+            for(Field field : c.getDeclaredFields()) {
+                if(Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                Object value;
+                try {
+                    field.setAccessible(true);
+                    value = field.get(object);
+                } catch(Exception e) {
+                    continue;
+                }
+                String name = path == null ? field.getName() : path + "." + field.getName();
+                String found = follow(value, leaked, name, depth, visited);
+                if(found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String follow(Object value, Object leaked, String path, int depth,
+                                 IdentityHashMap<Object, Boolean> visited) {
+        if(value == null) {
+            return null;
+        }
+        if(references(value, leaked)) {
+            return path;
+        }
+        // Views and contexts that aren't the leak are someone else's business, as is the manager
+        if(depth + 1 >= MAX_DEPTH || value instanceof View || value instanceof Context
+                || value instanceof ScreenControllerManager || visited.put(value, Boolean.TRUE) != null) {
+            return null;
+        }
+        if(isPlatformClass(value.getClass()) && !(value instanceof Object[])
+                && !(value instanceof Collection) && !(value instanceof Map)) {
+            return null;
+        }
+        return findPath(value, leaked, path, depth + 1, visited);
+    }
+
+    /*
+     * True if holding value keeps leaked alive - it's the leak, a view in the leaked tree or
+     * inflated with the leaked Activity, or a wrapper around the leaked Activity
+     */
+    private static boolean references(Object value, Object leaked) {
+        if(value == leaked) {
+            return true;
+        }
+        if(value instanceof View) {
+            View view = (View) value;
+            return view.getContext() == leaked || view.getRootView() == leaked;
+        }
+        return value instanceof ContextWrapper && ((ContextWrapper) value).getBaseContext() == leaked;
+    }
+
+    private static boolean isPlatformClass(Class<?> c) {
+        String name = c.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("android.")
+                || name.startsWith("dalvik.") || name.startsWith("com.android.");
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: Watch
+     *
+     * Description:
+     * One context and view tree let go of, posted to run once its window has passed
+     ------------------------------------------------------------------------------------------*/
+
+    private class Watch implements Runnable {
+
+        /**
+         * Host the check was posted through, already detached so it doesn't hold the context
+         */
+        private final ScreenHost mHost;
+
+        /**
+         * Registered on mQueue, null once enqueued (or if there was nothing to watch)
+         */
+        private Reference<Object> mContext;
+        private Reference<Object> mRoot;
+
+        private Watch(ScreenHost host, Object context, View root) {
+            mHost = host;
+            mContext = context != null ? new WeakReference<>(context, mQueue) : null;
+            mRoot = root != null ? new WeakReference<Object>(root, mQueue) : null;
+        }
+
+        public void run() {
+            check(this);
+        }
+
+        private void onCollected(Reference<?> ref) {
+            if(ref == mContext) {
+                mContext = null;
+            }
+            if(ref == mRoot) {
+                mRoot = null;
+            }
+        }
+
+        private boolean isAlive() {
+            return mContext != null || mRoot != null;
+        }
+    }
+}
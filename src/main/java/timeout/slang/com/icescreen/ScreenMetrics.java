@@ -0,0 +1,49 @@
+package timeout.slang.com.icescreen;
+
+/**
+ * Receives navigation timings from the ScreenManager. Nothing is timed unless one is set, so
+ * leaving it unset costs nothing. Called on the main thread
+ */
+public interface ScreenMetrics {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Time spent in ScreenController.onCreateView()
+     */
+    int EVENT_INFLATE = 0;
+
+    /**
+     * Time from a push/pop/batch op to the new top screen's onSetActive() returning
+     */
+    int EVENT_TIME_TO_ACTIVE = 1;
+
+    /**
+     * Time from a transition starting to it finishing (or being fast-forwarded)
+     */
+    int EVENT_TRANSITION = 2;
+
+    /**
+     * Time taken to rebuild the top screen when a new Activity is handed to the manager
+     */
+    int EVENT_CONFIG_REBUILD = 3;
+
+    /**
+     * Number of events above
+     */
+    int EVENT_COUNT = 4;
+
+    /*------------------------------------------------------------------------------------------
+     * Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Record a timing. Must not allocate, it's called on the navigation hot path
+     * @param screenClass   Screen the timing belongs to
+     * @param event         One of the EVENT_ constants
+     * @param nanos         Duration
+     */
+    void record(Class<? extends ScreenController> screenClass, int event, long nanos);
+}
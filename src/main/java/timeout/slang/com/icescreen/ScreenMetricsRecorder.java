@@ -0,0 +1,163 @@
+package timeout.slang.com.icescreen;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ScreenMetrics that keeps a histogram per screen class and event. Buckets are powers of two of
+ * microseconds so recording is a couple of array writes - the only allocation is the first time a
+ * screen class is seen. Main thread only
+ */
+public class ScreenMetricsRecorder implements ScreenMetrics {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Number of buckets, the last one holds everything from ~36 minutes up
+     */
+    public static final int BUCKETS = 32;
+
+    private static final String[] EVENT_NAMES = { "inflate", "timeToActive", "transition", "configRebuild" };
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Histograms keyed by screen class
+     */
+    private final HashMap<Class<? extends ScreenController>, Histogram> mHistograms = new HashMap<>();
+
+    /*------------------------------------------------------------------------------------------
+     * From ScreenMetrics
+     ------------------------------------------------------------------------------------------*/
+
+    public void record(Class<? extends ScreenController> screenClass, int event, long nanos) {
+        Histogram histogram = mHistograms.get(screenClass);
+        if(histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(screenClass, histogram);
+        }
+        histogram.record(event, nanos);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Walk everything recorded so far, for piping into telemetry. Each visit gets its own copy of
+     * the buckets, later recording doesn't change what's been handed out
+     * @param visitor   Called once per screen class and event that has at least one sample
+     */
+    public void snapshot(Visitor visitor) {
+        for(Map.Entry<Class<? extends ScreenController>, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            for(int event = 0; event < EVENT_COUNT; event++) {
+                if(histogram.mCount[event] > 0) {
+                    visitor.visit(entry.getKey(), event, histogram.mCount[event], histogram.mTotal[event],
+                            histogram.mMax[event], histogram.mBuckets[event].clone());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return      Human readable summary of everything recorded, one line per class and event
+     */
+    public String dump() {
+        final StringBuilder out = new StringBuilder();
+        snapshot(new Visitor() {
+            public void visit(Class<? extends ScreenController> screenClass, int event, long count,
+                              long totalNanos, long maxNanos, long[] buckets) {
+                out.append(screenClass.getSimpleName()).append(' ').append(EVENT_NAMES[event])
+                        .append(" n=").append(count)
+                        .append(" mean=").append(totalNanos / count / 1000).append("us")
+                        .append(" p50<").append(percentileMicros(buckets, count, 0.5)).append("us")
+                        .append(" p90<").append(percentileMicros(buckets, count, 0.9)).append("us")
+                        .append(" p99<").append(percentileMicros(buckets, count, 0.99)).append("us")
+                        .append(" max=").append(maxNanos / 1000).append("us\n");
+            }
+        });
+        return out.toString();
+    }
+
+    /**
+     * Forget everything recorded so far
+     */
+    public void reset() {
+        mHistograms.clear();
+    }
+
+    /**
+     * Upper bound of the bucket a percentile falls in
+     * @param buckets       Bucket counts from a snapshot
+     * @param count         Total samples
+     * @param percentile    0 to 1
+     * @return              Upper bound in microseconds
+     */
+    public static long percentileMicros(long[] buckets, long count, double percentile) {
+        long target = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if(seen >= target) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << buckets.length;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: Histogram
+     *
+     * Description:
+     * Counts, totals, maximums and log2 microsecond buckets for every event of one screen class
+     ------------------------------------------------------------------------------------------*/
+
+    private static class Histogram {
+
+        private final long[] mCount = new long[EVENT_COUNT];
+
+        private final long[] mTotal = new long[EVENT_COUNT];
+
+        private final long[] mMax = new long[EVENT_COUNT];
+
+        private final long[][] mBuckets = new long[EVENT_COUNT][BUCKETS];
+
+        private void record(int event, long nanos) {
+            long micros = nanos / 1000;
+            int bucket = micros <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+            mBuckets[event][Math.min(bucket, BUCKETS - 1)]++;
+            mCount[event]++;
+            mTotal[event] += nanos;
+            if(nanos > mMax[event]) {
+                mMax[event] = nanos;
+            }
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: Visitor
+     *
+     * Description:
+     * Receives one histogram at a time from snapshot()
+     ------------------------------------------------------------------------------------------*/
+
+    public interface Visitor {
+
+        /**
+         * @param screenClass   Screen class
+         * @param event         One of the ScreenMetrics.EVENT_ constants
+         * @param count         Number of samples
+         * @param totalNanos    Sum of every sample
+         * @param maxNanos      Largest sample
+         * @param buckets       Sample counts, bucket i holds [2^i, 2^(i+1)) microseconds (bucket 0
+         *                      also holds anything under 1us). A copy, free to keep
+         */
+        void visit(Class<? extends ScreenController> screenClass, int event, long count,
+                   long totalNanos, long maxNanos, long[] buckets);
+    }
+}
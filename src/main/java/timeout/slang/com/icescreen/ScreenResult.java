@@ -0,0 +1,116 @@
+package timeout.slang.com.icescreen;
+
+/**
+ * Result handed back to a screen by one it pushed with pushScreenForResult(). Primitive values are
+ * held unboxed and instances are reused, so delivering a result doesn't allocate. Only valid
+ * during onScreenResult() - copy out anything you need to keep
+ */
+public class ScreenResult {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Result when the screen was popped without calling setResult()
+     */
+    public static final int RESULT_CANCELED = 0;
+
+    /**
+     * Conventional result for success
+     */
+    public static final int RESULT_OK = -1;
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private int mRequestCode;
+    private int mResultCode;
+
+    /**
+     * Value, only one of which is set by a given setResult()
+     */
+    private long mLong;
+    private double mDouble;
+    private Object mValue;
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * @return      Request code passed to pushScreenForResult()
+     */
+    public int getRequestCode() {
+        return mRequestCode;
+    }
+
+    /**
+     * @return      Result code passed to setResult(), RESULT_CANCELED if it wasn't called
+     */
+    public int getResultCode() {
+        return mResultCode;
+    }
+
+    public long getLong() {
+        return mLong;
+    }
+
+    public int getInt() {
+        return (int) mLong;
+    }
+
+    public boolean getBoolean() {
+        return mLong != 0;
+    }
+
+    public double getDouble() {
+        return mDouble;
+    }
+
+    public float getFloat() {
+        return (float) mDouble;
+    }
+
+    /**
+     * @param type  Type the value was set as
+     * @return      The value, null if there isn't one
+     * @throws ClassCastException if the value isn't a type
+     */
+    public <T> T getValue(Class<T> type) {
+        return type.cast(mValue);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Package Methods - Called by ScreenController
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Start over for a new push, the result is cancelled until set
+     * @param requestCode   Request code passed to pushScreenForResult()
+     */
+    void reset(int requestCode) {
+        mRequestCode = requestCode;
+        set(RESULT_CANCELED, 0, 0, null);
+    }
+
+    void set(int resultCode, long longValue, double doubleValue, Object value) {
+        mResultCode = resultCode;
+        mLong = longValue;
+        mDouble = doubleValue;
+        mValue = value;
+    }
+
+    void copyFrom(ScreenResult other) {
+        mRequestCode = other.mRequestCode;
+        set(other.mResultCode, other.mLong, other.mDouble, other.mValue);
+    }
+
+    /**
+     * Let go of the value once delivered (or dropped) so it isn't retained
+     */
+    void clear() {
+        mValue = null;
+    }
+}
@@ -0,0 +1,207 @@
+package timeout.slang.com.icescreen;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact encoding of a screen stack for the savedInstanceState Bundle. Each distinct screen class
+ * name is written once into a table and the stack is an int array of indexes into it. Screen data
+ * is only written for screens that have any, so a stack of stateless screens costs a few bytes
+ * per entry. View hierarchy state is kept apart from the screens' own data, under its own key
+ * and only for screens that have some
+ */
+public class ScreenStackState {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    private static final String KEY_CLASSES = "icescreen:classes";
+    private static final String KEY_STACK = "icescreen:stack";
+    private static final String KEY_DATA = "icescreen:data";
+    private static final String KEY_VIEW_STATE = "icescreen:view_state";
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Class names, bottom of stack first
+     */
+    private final List<String> mClassNames = new ArrayList<>();
+
+    /**
+     * Data for each entry in mClassNames, null where a screen had none
+     */
+    private final List<Bundle> mData = new ArrayList<>();
+
+    /**
+     * View hierarchy state for each entry in mClassNames, null where a screen had none
+     */
+    private final List<SparseArray<Parcelable>> mViewStates = new ArrayList<>();
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Add a screen on top of the stack
+     * @param className     Class of the screen
+     * @param data          Screen's data, may be null
+     */
+    public void add(String className, Bundle data) {
+        add(className, data, null);
+    }
+
+    /**
+     * Add a screen on top of the stack
+     * @param className     Class of the screen
+     * @param data          Screen's data, may be null
+     * @param viewState     Hierarchy state of the screen's last view tree, may be null
+     */
+    public void add(String className, Bundle data, SparseArray<Parcelable> viewState) {
+        mClassNames.add(className);
+        mData.add(data == null || data.isEmpty() ? null : data);
+        mViewStates.add(viewState == null || viewState.size() == 0 ? null : viewState);
+    }
+
+    /**
+     * Drop screens from the top of the stack
+     * @param size      Number of screens to keep
+     */
+    public void truncate(int size) {
+        while(mClassNames.size() > size) {
+            mClassNames.remove(mClassNames.size() - 1);
+            mData.remove(mData.size() - 1);
+            mViewStates.remove(mViewStates.size() - 1);
+        }
+    }
+
+    /**
+     * @return      Number of screens
+     */
+    public int size() {
+        return mClassNames.size();
+    }
+
+    /**
+     * @param index     Position in the stack, 0 is the bottom
+     * @return          Class name of the screen
+     */
+    public String getClassName(int index) {
+        return mClassNames.get(index);
+    }
+
+    /**
+     * @param index     Position in the stack, 0 is the bottom
+     * @return          Screen's data, null if it had none
+     */
+    public Bundle getData(int index) {
+        return mData.get(index);
+    }
+
+    /**
+     * @param index     Position in the stack, 0 is the bottom
+     * @return          Hierarchy state of the screen's last view tree, null if it had none
+     */
+    public SparseArray<Parcelable> getViewState(int index) {
+        return mViewStates.get(index);
+    }
+
+    /**
+     * Write the stack into a bundle
+     * @param out       Bundle to write into
+     */
+    public void writeTo(Bundle out) {
+        List<String> table = new ArrayList<>();
+        int[] stack = new int[mClassNames.size()];
+        Parcelable[] data = new Parcelable[mClassNames.size()];
+        boolean hasData = false;
+        Bundle viewStates = null;
+
+        for(int i = 0; i < stack.length; i++) {
+            String className = mClassNames.get(i);
+            int index = table.indexOf(className);
+            if(index < 0) {
+                index = table.size();
+                table.add(className);
+            }
+            stack[i] = index;
+            data[i] = mData.get(i);
+            hasData |= data[i] != null;
+
+            // Keyed by position so screens without any cost nothing
+            SparseArray<Parcelable> viewState = mViewStates.get(i);
+            if(viewState != null) {
+                if(viewStates == null) {
+                    viewStates = new Bundle();
+                }
+                viewStates.putSparseParcelableArray(Integer.toString(i), viewState);
+            }
+        }
+
+        out.putStringArray(KEY_CLASSES, table.toArray(new String[table.size()]));
+        out.putIntArray(KEY_STACK, stack);
+        if(hasData) {
+            out.putParcelableArray(KEY_DATA, data);
+        }
+        if(viewStates != null) {
+            out.putBundle(KEY_VIEW_STATE, viewStates);
+        }
+    }
+
+    /**
+     * Read a stack written by writeTo()
+     * @param in            Bundle to read from
+     * @param classLoader   Loader for any custom Parcelables in screen data
+     * @return              The stack or null if the bundle doesn't hold one
+     */
+    public static ScreenStackState readFrom(Bundle in, ClassLoader classLoader) {
+        String[] table = in.getStringArray(KEY_CLASSES);
+        int[] stack = in.getIntArray(KEY_STACK);
+        if(table == null || stack == null) {
+            return null;
+        }
+        Parcelable[] data = in.getParcelableArray(KEY_DATA);
+        Bundle viewStates = in.getBundle(KEY_VIEW_STATE);
+        if(viewStates != null) {
+            viewStates.setClassLoader(classLoader);
+        }
+
+        ScreenStackState state = new ScreenStackState();
+        for(int i = 0; i < stack.length; i++) {
+            Bundle screenData = data != null ? (Bundle) data[i] : null;
+            if(screenData != null) {
+                screenData.setClassLoader(classLoader);
+            }
+            SparseArray<Parcelable> viewState = viewStates != null
+                    ? viewStates.<Parcelable>getSparseParcelableArray(Integer.toString(i)) : null;
+            state.add(table[stack[i]], screenData, viewState);
+        }
+        return state;
+    }
+
+    /**
+     * Measure how many bytes a bundle takes up when parcelled, which is what counts towards the
+     * Binder transaction limit
+     * @param bundle    Bundle to measure, may be null
+     * @return          Size in bytes
+     */
+    public static int measure(Bundle bundle) {
+        if(bundle == null) {
+            return 0;
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
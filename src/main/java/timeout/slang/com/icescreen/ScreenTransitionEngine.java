@@ -0,0 +1,603 @@
+package timeout.slang.com.icescreen;
+
+import android.animation.Animator;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.animation.Animation;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+
+/**
+ * Runs the animations between screens. Keeps a single root container per Activity (set as the
+ * content view once) and swaps screen views in and out as its children, so a push/pop never
+ * triggers setContentView. Listeners and runnables are created once and the animations come from
+ * the screens themselves, so the engine doesn't create anything per transition.
+ *
+ * Screens can instead opt into a hardware layer transition, where both views are promoted to
+ * hardware layers and faded/slid with ViewPropertyAnimator so frames only composite the layers
+ * rather than redrawing both trees.
+ *
+ * With snapshots on, the outgoing view is drawn once into a reused bitmap and its live tree is
+ * handed back straight away, so only the incoming screen is laid out and drawn during the
+ * animation
+ */
+public class ScreenTransitionEngine implements Animation.AnimationListener, Animator.AnimatorListener {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Told when a transition finishes
+     */
+    private final Callback mCallback;
+
+    /**
+     * Used to finish transitions outside of the draw pass that fired onAnimationEnd
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Posted from onAnimationEnd
+     */
+    private final Runnable mFinish = new Runnable() {
+        public void run() {
+            finish();
+        }
+    };
+
+    /**
+     * Activity the root belongs to
+     */
+    private Activity mActivity;
+
+    /**
+     * Persistent container that screen views are added to, set as content view once per Activity
+     */
+    private RootLayout mRoot;
+
+    /**
+     * Told about every finished transition, may be null
+     */
+    private TransitionObserver mObserver;
+
+    /**
+     * State of the transition in flight
+     */
+    private boolean mRunning;
+    private ScreenController mOutgoingScreen;
+    private View mOutgoing;
+    private View mIncoming;
+    private Animation mDriving;
+    private boolean mHardware;
+    private int mIncomingLayerType;
+    private int mOutgoingLayerType;
+    private long mStartNanos;
+
+    /**
+     * Screen driving the transition in flight, handed to the observer with its timings
+     */
+    private Class<? extends ScreenController> mScreenClass;
+
+    /**
+     * True to animate a bitmap snapshot of the outgoing view rather than the view itself
+     */
+    private boolean mSnapshots;
+
+    /**
+     * Displays the snapshot in the root, one per root
+     */
+    private ImageView mSnapshotView;
+
+    /**
+     * Reused between transitions, only replaced when the outgoing view changes size. The drawable
+     * wraps the bitmap so setting it on mSnapshotView doesn't allocate one per transition
+     */
+    private Bitmap mSnapshotBitmap;
+    private BitmapDrawable mSnapshotDrawable;
+    private final Canvas mSnapshotCanvas = new Canvas();
+
+    /**
+     * Number of objects this engine has created itself since it was created - the root, snapshot
+     * bitmap, drawable and view. Allocations made by the view system and animations aren't counted
+     */
+    private int mAllocations;
+
+    /*------------------------------------------------------------------------------------------
+     * Constructor
+     ------------------------------------------------------------------------------------------*/
+
+    public ScreenTransitionEngine(Callback callback) {
+        mCallback = callback;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Set our root as the Activity's content view, creating it if this is a new Activity
+     * @param activity      Activity to display in
+     */
+    public void attach(Activity activity) {
+        if(mActivity != activity) {
+            mActivity = activity;
+            mRoot = new RootLayout(activity);
+            mSnapshotView = null;
+            mAllocations++;
+        }
+        activity.setContentView(mRoot);
+    }
+
+    /**
+     * Finish anything in flight and let go of the Activity and every view
+     */
+    public void detach() {
+        fastForward();
+        if(mRoot != null) {
+            mRoot.removeAllViews();
+        }
+        mRoot = null;
+        mActivity = null;
+        mSnapshotView = null;
+    }
+
+    /**
+     * Display a view without animating, replacing whatever was there
+     * @param view      View to display, may be null
+     */
+    public void show(View view) {
+        fastForward();
+        if(mRoot == null) {
+            return;
+        }
+        mRoot.removeAllViews();
+        if(view != null) {
+            detachFromParent(view);
+            mRoot.addView(view);
+        }
+    }
+
+    /**
+     * Animate from one view to another. Any transition still in flight is finished first
+     * @param screenClass       Screen driving the transition, handed to the observer
+     * @param incoming          View being shown, may be null
+     * @param incomingAnim      Animation for the incoming view
+     * @param outgoingScreen    Screen the outgoing view belongs to, passed back in the callback
+     * @param outgoing          View being removed, may be null
+     * @param outgoingAnim      Animation for the outgoing view
+     * @param push              True if incoming goes on top and drives the transition, false if it
+     *                          goes underneath and the outgoing view drives
+     */
+    public void transition(Class<? extends ScreenController> screenClass, View incoming, Animation incomingAnim,
+                           ScreenController outgoingScreen, View outgoing, Animation outgoingAnim, boolean push) {
+        if(!begin(screenClass, incoming, outgoingScreen, outgoing, push, false)) {
+            return;
+        }
+        outgoing = mOutgoing;
+
+        // Whichever view is on top decides when we're done
+        if(push) {
+            mDriving = incoming != null ? incomingAnim : outgoingAnim;
+        } else {
+            mDriving = outgoing != null ? outgoingAnim : incomingAnim;
+        }
+        if(mDriving == null) {
+            finish();
+            return;
+        }
+        mDriving.setAnimationListener(this);
+
+        if(incoming != null && incomingAnim != null) {
+            incoming.startAnimation(incomingAnim);
+        }
+        if(outgoing != null && outgoingAnim != null) {
+            outgoing.startAnimation(outgoingAnim);
+        }
+    }
+
+    /**
+     * Cross fade (and optionally slide) between two views with ViewPropertyAnimator, with both
+     * promoted to hardware layers for the duration. Layer types, alpha and translation are
+     * restored once finished. Any transition still in flight is finished first
+     * @param screenClass       Screen driving the transition, handed to the observer
+     * @param incoming          View being shown, may be null
+     * @param outgoingScreen    Screen the outgoing view belongs to, passed back in the callback
+     * @param outgoing          View being removed, may be null
+     * @param push              True if incoming goes on top and drives the transition, false if it
+     *                          goes underneath and the outgoing view drives
+     * @param duration          Length of the transition in ms
+     * @param slide             Fraction of the root's width the top view slides by, 0 for a fade
+     */
+    public void transitionWithLayers(Class<? extends ScreenController> screenClass, View incoming,
+                                     ScreenController outgoingScreen, View outgoing, boolean push,
+                                     long duration, float slide) {
+        if(!begin(screenClass, incoming, outgoingScreen, outgoing, push, true)) {
+            return;
+        }
+        outgoing = mOutgoing;
+
+        float offset = slide * mRoot.getWidth();
+        View driving = push ? incoming : outgoing;
+        if(driving == null) {
+            driving = push ? outgoing : incoming;
+        }
+        if(driving == null) {
+            finish();
+            return;
+        }
+
+        if(incoming != null) {
+            mIncomingLayerType = incoming.getLayerType();
+            incoming.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+            incoming.setAlpha(0);
+            incoming.setTranslationX(push ? offset : 0);
+            incoming.animate().alpha(1).translationX(0).setDuration(duration)
+                    .setListener(incoming == driving ? this : null).start();
+        }
+        if(outgoing != null) {
+            mOutgoingLayerType = outgoing.getLayerType();
+            outgoing.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+            outgoing.animate().alpha(0).translationX(push ? 0 : offset).setDuration(duration)
+                    .setListener(outgoing == driving ? this : null).start();
+        }
+    }
+
+    /**
+     * Set something to be told the duration and draw cost of every transition. Measuring is only
+     * switched on while an observer is set
+     * @param observer      Observer or null to stop measuring
+     */
+    public void setTransitionObserver(TransitionObserver observer) {
+        mObserver = observer;
+    }
+
+    /**
+     * Animate a snapshot of the outgoing view instead of its live tree. The bitmap is kept between
+     * transitions, call releaseSnapshot() to let it go
+     * @param snapshots     True to snapshot
+     */
+    public void setSnapshots(boolean snapshots) {
+        mSnapshots = snapshots;
+        if(!snapshots && !mRunning) {
+            releaseSnapshot();
+        }
+    }
+
+    /**
+     * Free the snapshot bitmap if no transition is using it, e.g. under memory pressure
+     */
+    public void releaseSnapshot() {
+        if(mRunning || mSnapshotBitmap == null) {
+            return;
+        }
+        mSnapshotCanvas.setBitmap(null);
+        mSnapshotBitmap.recycle();
+        mSnapshotBitmap = null;
+        mSnapshotDrawable = null;
+    }
+
+    /**
+     * Jump the transition in flight (if any) to its end state
+     */
+    public void fastForward() {
+        if(mRunning) {
+            finish();
+        }
+    }
+
+    /**
+     * @return      True if a transition is in flight
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * @return      Number of objects the engine has created itself (root container, snapshot
+     *              bitmap, drawable and view). Should only go up once per Activity, or when the
+     *              snapshot changes size. Doesn't cover what the view system or animations allocate
+     */
+    public int getAllocationCount() {
+        return mAllocations;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * From Animation.AnimationListener
+     ------------------------------------------------------------------------------------------*/
+
+    public void onAnimationStart(Animation animation) { }
+
+    public void onAnimationRepeat(Animation animation) { }
+
+    public void onAnimationEnd(Animation animation) {
+        // Can't remove views while the draw pass that ended the animation is still running
+        if(animation == mDriving) {
+            mHandler.post(mFinish);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * From Animator.AnimatorListener
+     ------------------------------------------------------------------------------------------*/
+
+    public void onAnimationStart(Animator animation) { }
+
+    public void onAnimationRepeat(Animator animation) { }
+
+    public void onAnimationCancel(Animator animation) { }
+
+    public void onAnimationEnd(Animator animation) {
+        if(mRunning && mHardware) {
+            mHandler.post(mFinish);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /*
+     * Finish anything in flight, put both views in the root and record the new transition. Returns
+     * false if there's no root to transition in
+     */
+    private boolean begin(Class<? extends ScreenController> screenClass, View incoming,
+                          ScreenController outgoingScreen, View outgoing, boolean push, boolean hardware) {
+        fastForward();
+        if(mRoot == null) {
+            return false;
+        }
+
+        // Pushed views go on top, revealed views go underneath
+        if(incoming != null) {
+            detachFromParent(incoming);
+            mRoot.addView(incoming, push ? mRoot.getChildCount() : 0);
+        }
+        if(outgoing != null && mSnapshots && snapshot(outgoing)) {
+            // Live tree is done with as soon as it's been drawn
+            detachFromParent(outgoing);
+            mCallback.onTransitionEnd(outgoingScreen, outgoing);
+            outgoing = mSnapshotView;
+            outgoingScreen = null;
+        }
+        if(outgoing != null && outgoing.getParent() != mRoot) {
+            detachFromParent(outgoing);
+            mRoot.addView(outgoing, push ? 0 : mRoot.getChildCount());
+        }
+
+        mRunning = true;
+        mScreenClass = screenClass;
+        mHardware = hardware;
+        mOutgoingScreen = outgoingScreen;
+        mOutgoing = outgoing;
+        mIncoming = incoming;
+
+        if(mObserver != null) {
+            mStartNanos = System.nanoTime();
+            mRoot.startMeasuring();
+        }
+        return true;
+    }
+
+    /*
+     * Tear down the transition in flight and hand the outgoing view back
+     */
+    private void finish() {
+        if(!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mHandler.removeCallbacks(mFinish);
+
+        // Drop listeners first, clearAnimation()/cancel() would otherwise call back into us
+        if(mDriving != null) {
+            mDriving.setAnimationListener(null);
+        }
+        if(mIncoming != null) {
+            if(mHardware) {
+                settle(mIncoming, mIncomingLayerType);
+            } else {
+                mIncoming.clearAnimation();
+            }
+        }
+
+        View outgoing = mOutgoing;
+        ScreenController outgoingScreen = mOutgoingScreen;
+        Class<? extends ScreenController> screenClass = mScreenClass;
+        boolean hardware = mHardware;
+        mScreenClass = null;
+        mOutgoing = null;
+        mOutgoingScreen = null;
+        mIncoming = null;
+        mDriving = null;
+        mHardware = false;
+
+        if(mObserver != null && mRoot != null && mRoot.isMeasuring()) {
+            mObserver.onTransitionFinished(screenClass, hardware, System.nanoTime() - mStartNanos,
+                    mRoot.getMeasuredFrames(), mRoot.getMeasuredDrawNanos());
+        }
+        if(mRoot != null) {
+            mRoot.stopMeasuring();
+        }
+
+        if(outgoing != null) {
+            if(hardware) {
+                settle(outgoing, mOutgoingLayerType);
+            } else {
+                outgoing.clearAnimation();
+            }
+            detachFromParent(outgoing);
+            if(outgoing == mSnapshotView) {
+                mSnapshotView.setImageDrawable(null);
+            } else {
+                mCallback.onTransitionEnd(outgoingScreen, outgoing);
+            }
+        }
+        mCallback.onTransitionComplete();
+    }
+
+    /*
+     * Draw a view into the snapshot bitmap and put it in mSnapshotView. Returns false if the view
+     * hasn't been laid out or the bitmap can't be allocated
+     */
+    private boolean snapshot(View view) {
+        int width = view.getWidth();
+        int height = view.getHeight();
+        if(width <= 0 || height <= 0) {
+            return false;
+        }
+
+        if(mSnapshotBitmap != null && (mSnapshotBitmap.getWidth() != width || mSnapshotBitmap.getHeight() != height)) {
+            mSnapshotCanvas.setBitmap(null);
+            mSnapshotBitmap.recycle();
+            mSnapshotBitmap = null;
+            mSnapshotDrawable = null;
+        }
+        if(mSnapshotBitmap == null) {
+            try {
+                mSnapshotBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } catch(OutOfMemoryError e) {
+                return false;
+            }
+            mSnapshotCanvas.setBitmap(mSnapshotBitmap);
+            mSnapshotDrawable = new BitmapDrawable(mActivity.getResources(), mSnapshotBitmap);
+            mAllocations += 2;
+        } else {
+            mSnapshotBitmap.eraseColor(0);
+        }
+        view.draw(mSnapshotCanvas);
+
+        if(mSnapshotView == null) {
+            mSnapshotView = new ImageView(mActivity);
+            mSnapshotView.setLayoutParams(new ViewGroup.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+            mAllocations++;
+        }
+        mSnapshotView.setAlpha(view.getAlpha());
+        mSnapshotView.setTranslationX(view.getTranslationX());
+        mSnapshotView.setImageDrawable(mSnapshotDrawable);
+        return true;
+    }
+
+    /*
+     * Stop a property animation and put the view back how it was before the transition
+     */
+    private static void settle(View view, int layerType) {
+        view.animate().setListener(null);
+        view.animate().cancel();
+        view.setAlpha(1);
+        view.setTranslationX(0);
+        view.setLayerType(layerType, null);
+    }
+
+    private static void detachFromParent(View view) {
+        if(view.getParent() != null) {
+            ((ViewGroup) view.getParent()).removeView(view);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: RootLayout
+     *
+     * Description:
+     * The persistent root container. Times its own dispatchDraw while a transition is being
+     * measured so both transition paths can be compared on per-frame draw cost
+     ------------------------------------------------------------------------------------------*/
+
+    private static class RootLayout extends FrameLayout {
+
+        private boolean mMeasuring;
+
+        private int mFrames;
+
+        private long mDrawNanos;
+
+        private RootLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected void dispatchDraw(Canvas canvas) {
+            if(!mMeasuring) {
+                super.dispatchDraw(canvas);
+                return;
+            }
+            long start = System.nanoTime();
+            super.dispatchDraw(canvas);
+            mDrawNanos += System.nanoTime() - start;
+            mFrames++;
+        }
+
+        private void startMeasuring() {
+            mMeasuring = true;
+            mFrames = 0;
+            mDrawNanos = 0;
+        }
+
+        private void stopMeasuring() {
+            mMeasuring = false;
+        }
+
+        private boolean isMeasuring() {
+            return mMeasuring;
+        }
+
+        private int getMeasuredFrames() {
+            return mFrames;
+        }
+
+        private long getMeasuredDrawNanos() {
+            return mDrawNanos;
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: TransitionObserver
+     *
+     * Description:
+     * Measurement hook, told the cost of each transition once it's finished
+     ------------------------------------------------------------------------------------------*/
+
+    public interface TransitionObserver {
+
+        /**
+         * @param screenClass   Screen that drove the transition - the one pushed or popped
+         * @param hardware      True if the transition used hardware layers + property animators,
+         *                      false if it used view Animations
+         * @param durationNanos Time from the transition starting to it finishing
+         * @param frames        Number of frames the root was drawn during the transition
+         * @param drawNanos     Total time spent drawing the root (and so both screens) across
+         *                      those frames
+         */
+        void onTransitionFinished(Class<? extends ScreenController> screenClass, boolean hardware,
+                                  long durationNanos, int frames, long drawNanos);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: Callback
+     *
+     * Description:
+     * Told when a transition has finished and the outgoing view has been removed
+     ------------------------------------------------------------------------------------------*/
+
+    public interface Callback {
+
+        /**
+         * @param outgoingScreen    Screen the outgoing view belongs to, may be null
+         * @param outgoing          The detached outgoing view
+         */
+        void onTransitionEnd(ScreenController outgoingScreen, View outgoing);
+
+        /**
+         * Called after every transition has finished, whether or not there was an outgoing view
+         */
+        void onTransitionComplete();
+    }
+}
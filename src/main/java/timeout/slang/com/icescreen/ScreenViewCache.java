@@ -0,0 +1,252 @@
+package timeout.slang.com.icescreen;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least-recently-used cache of detached view trees belonging to screens lower down the
+ * stack. Views are bound to the Activity they were inflated with so the owner must clear() this
+ * whenever the context goes away
+ */
+public class ScreenViewCache {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Cached views, iteration order is least recently used first
+     */
+    private final LinkedHashMap<ScreenController, Entry> mEntries = new LinkedHashMap<>(8, 0.75f, true);
+
+    /**
+     * Maximum number of screens we'll hold a view for
+     */
+    private int mMaxScreens;
+
+    /**
+     * Maximum number of views (summed across every cached tree) we'll hold
+     */
+    private int mMaxViews;
+
+    /**
+     * Running total of views held across all cached trees
+     */
+    private int mViewCount;
+
+    /**
+     * Told whenever a tree is thrown away rather than handed back, may be null
+     */
+    private OnEvictListener mEvictListener;
+
+    /*------------------------------------------------------------------------------------------
+     * Constructor
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * @param maxScreens    Maximum number of screens to cache a view for
+     * @param maxViews      Maximum number of views (estimated by walking each tree) to cache
+     */
+    public ScreenViewCache(int maxScreens, int maxViews) {
+        setMaxSize(maxScreens, maxViews);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * @param listener      Told whenever a tree is evicted, refused or cleared, may be null
+     */
+    public void setOnEvictListener(OnEvictListener listener) {
+        mEvictListener = listener;
+    }
+
+    /**
+     * Change the bounds of the cache, evicting straight away if we're now over
+     * @param maxScreens    Maximum number of screens to cache a view for, 0 disables the cache
+     * @param maxViews      Maximum number of views (estimated by walking each tree) to cache
+     */
+    public void setMaxSize(int maxScreens, int maxViews) {
+        if(maxScreens < 0 || maxViews < 0) {
+            throw new IllegalArgumentException("Cache bounds can't be negative");
+        }
+        mMaxScreens = maxScreens;
+        mMaxViews = maxViews;
+        trimToSize(mMaxScreens, mMaxViews);
+    }
+
+    /**
+     * Add a detached view tree to the cache. Trees that are bigger than the whole cache aren't held
+     * @param screen    Screen that owns the view
+     * @param view      Detached root of the screen's view tree
+     */
+    public void put(ScreenController screen, View view) {
+        take(screen);
+
+        int viewCount = countViews(view);
+        if(mMaxScreens == 0 || viewCount > mMaxViews) {
+            if(mEvictListener != null) {
+                mEvictListener.onEvicted(screen, view);
+            }
+            return;
+        }
+
+        mEntries.put(screen, new Entry(view, viewCount));
+        mViewCount += viewCount;
+        trimToSize(mMaxScreens, mMaxViews);
+    }
+
+    /**
+     * Remove and return the cached view for a screen
+     * @param screen    Screen to look up
+     * @return          The cached view tree or null if we didn't have one
+     */
+    public View take(ScreenController screen) {
+        Entry entry = mEntries.remove(screen);
+        if(entry == null) {
+            return null;
+        }
+        mViewCount -= entry.mViewCount;
+        return entry.mView;
+    }
+
+    /**
+     * @param screen    Screen to look up
+     * @return          True if we hold a view for the screen
+     */
+    public boolean contains(ScreenController screen) {
+        return mEntries.containsKey(screen);
+    }
+
+    /**
+     * Throw away the cached view (if any) for a screen, the evict listener is told like for any
+     * other eviction
+     * @param screen    Screen to drop
+     */
+    public void remove(ScreenController screen) {
+        View view = take(screen);
+        if(view != null && mEvictListener != null) {
+            mEvictListener.onEvicted(screen, view);
+        }
+    }
+
+    /**
+     * Hand every cached tree to a visitor, least recently used first. Entries stay where they are
+     * @param visitor   Called once per cached tree
+     */
+    public void visit(Visitor visitor) {
+        for(Map.Entry<ScreenController, Entry> entry : mEntries.entrySet()) {
+            visitor.visit(entry.getKey(), entry.getValue().mView);
+        }
+    }
+
+    /**
+     * Drop every cached view, must be called before the Activity the views belong to goes away
+     */
+    public void clear() {
+        trimToSize(0, 0);
+    }
+
+    /**
+     * @return      Number of screens we currently hold a view for
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return      Number of views held across every cached tree
+     */
+    public int getViewCount() {
+        return mViewCount;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /*
+     * Evict least recently used entries until we're within the given bounds
+     */
+    private void trimToSize(int maxScreens, int maxViews) {
+        Iterator<Map.Entry<ScreenController, Entry>> it = mEntries.entrySet().iterator();
+        while(it.hasNext() && (mEntries.size() > maxScreens || mViewCount > maxViews)) {
+            Map.Entry<ScreenController, Entry> eldest = it.next();
+            it.remove();
+            mViewCount -= eldest.getValue().mViewCount;
+            if(mEvictListener != null) {
+                mEvictListener.onEvicted(eldest.getKey(), eldest.getValue().mView);
+            }
+        }
+    }
+
+    /*
+     * Estimate the size of a tree by counting every view in it
+     */
+    private static int countViews(View view) {
+        int count = 1;
+        if(view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for(int i = 0, n = group.getChildCount(); i < n; i++) {
+                count += countViews(group.getChildAt(i));
+            }
+        }
+        return count;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: OnEvictListener
+     *
+     * Description:
+     * Told when a cached tree is thrown away, last chance to pull anything out of it
+     ------------------------------------------------------------------------------------------*/
+
+    public interface OnEvictListener {
+
+        /**
+         * @param screen    Screen the tree belongs to
+         * @param view      The tree being thrown away
+         */
+        void onEvicted(ScreenController screen, View view);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: Visitor
+     *
+     * Description:
+     * Receives one cached tree at a time from visit()
+     ------------------------------------------------------------------------------------------*/
+
+    public interface Visitor {
+
+        /**
+         * @param screen    Screen the tree belongs to
+         * @param view      The cached tree, still owned by the cache
+         */
+        void visit(ScreenController screen, View view);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: Entry
+     *
+     * Description:
+     * A cached view tree along with its estimated size
+     ------------------------------------------------------------------------------------------*/
+
+    private static class Entry {
+
+        private final View mView;
+
+        private final int mViewCount;
+
+        private Entry(View view, int viewCount) {
+            mView = view;
+            mViewCount = viewCount;
+        }
+    }
+}
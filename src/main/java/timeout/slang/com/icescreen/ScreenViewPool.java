@@ -0,0 +1,124 @@
+package timeout.slang.com.icescreen;
+
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+
+/**
+ * Recycled sub-layouts (toolbars, rows, cards...) keyed by the layout resource they were inflated
+ * from, shared by every screen in a manager. Views are bound to the Activity they were inflated
+ * with so the owner must clear() this whenever the context goes away. Main thread only
+ */
+public class ScreenViewPool {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Default number of views we'll hold per layout id
+     */
+    public static final int DEFAULT_MAX_PER_LAYOUT = 4;
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Pooled views keyed by layout id. Lists are kept when emptied so steady state doesn't allocate
+     */
+    private final SparseArray<ArrayList<View>> mViews = new SparseArray<>();
+
+    /**
+     * Maximum number of views held per layout id
+     */
+    private int mMaxPerLayout;
+
+    /*------------------------------------------------------------------------------------------
+     * Constructor
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * @param maxPerLayout  Maximum number of views to hold per layout id
+     */
+    public ScreenViewPool(int maxPerLayout) {
+        setMaxPerLayout(maxPerLayout);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Change the cap, dropping views straight away if we're now over
+     * @param maxPerLayout  Maximum number of views to hold per layout id, 0 disables the pool
+     */
+    public void setMaxPerLayout(int maxPerLayout) {
+        if(maxPerLayout < 0) {
+            throw new IllegalArgumentException("Pool size can't be negative");
+        }
+        mMaxPerLayout = maxPerLayout;
+        for(int i = 0, n = mViews.size(); i < n; i++) {
+            ArrayList<View> views = mViews.valueAt(i);
+            while(views.size() > maxPerLayout) {
+                views.remove(views.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Take a recycled view
+     * @param layoutId  Layout resource the view was inflated from
+     * @return          A detached view or null if we don't have one
+     */
+    public View obtain(int layoutId) {
+        ArrayList<View> views = mViews.get(layoutId);
+        if(views == null || views.isEmpty()) {
+            return null;
+        }
+        return views.remove(views.size() - 1);
+    }
+
+    /**
+     * Hand a view back for reuse, it's removed from its parent
+     * @param layoutId  Layout resource the view was inflated from
+     * @param view      The view
+     * @return          True if it was pooled, false if we're full for that layout
+     */
+    public boolean release(int layoutId, View view) {
+        if(view.getParent() != null) {
+            ((ViewGroup) view.getParent()).removeView(view);
+        }
+
+        ArrayList<View> views = mViews.get(layoutId);
+        if(views == null) {
+            views = new ArrayList<>();
+            mViews.put(layoutId, views);
+        }
+        if(views.size() >= mMaxPerLayout) {
+            return false;
+        }
+        views.add(view);
+        return true;
+    }
+
+    /**
+     * @param layoutId  Layout resource id
+     * @return          Number of views pooled for it
+     */
+    public int size(int layoutId) {
+        ArrayList<View> views = mViews.get(layoutId);
+        return views != null ? views.size() : 0;
+    }
+
+    /**
+     * Drop every pooled view, must be called before the Activity the views belong to goes away
+     */
+    public void clear() {
+        for(int i = 0, n = mViews.size(); i < n; i++) {
+            mViews.valueAt(i).clear();
+        }
+    }
+}
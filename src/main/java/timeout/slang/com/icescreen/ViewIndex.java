@@ -0,0 +1,121 @@
+package timeout.slang.com.icescreen;
+
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Id to view lookup for the current view tree. Built lazily with a single walk of the tree the
+ * first time it's queried, then served from a SparseArray. Every time the tree changes (or goes
+ * away) the generation is bumped so anything holding a slot knows to look it up again
+ */
+public class ViewIndex {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Root of the tree we're indexing, may be null
+     */
+    private View mRoot;
+
+    /**
+     * Views keyed by id. First view found (depth first) wins, same as findViewById
+     */
+    private final SparseArray<View> mViews = new SparseArray<>();
+
+    /**
+     * True once mViews has been populated from mRoot
+     */
+    private boolean mBuilt;
+
+    /**
+     * Bumped whenever slots handed out by indexOfId() stop being valid
+     */
+    private int mGeneration;
+
+    /*------------------------------------------------------------------------------------------
+     * Public Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Point the index at a new tree, the index is rebuilt on the next lookup
+     * @param root      Root of the new tree, may be null
+     */
+    public void setRoot(View root) {
+        mRoot = root;
+        invalidate();
+    }
+
+    /**
+     * Drop the index (and invalidate any slots handed out) without changing the root
+     */
+    public void invalidate() {
+        mViews.clear();
+        mBuilt = false;
+        mGeneration++;
+    }
+
+    /**
+     * @return      Current generation, slots from indexOfId() are only valid while this is unchanged
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Look up the slot for a view id. Views added to the tree after the index was built are found
+     * with findViewById() and added (which bumps the generation)
+     * @param id    Id of the view
+     * @return      Slot to pass to viewAt() or a negative number if there's no such view
+     */
+    public int indexOfId(int id) {
+        if(mRoot == null) {
+            return -1;
+        }
+        if(!mBuilt) {
+            index(mRoot);
+            mBuilt = true;
+        }
+
+        int slot = mViews.indexOfKey(id);
+        if(slot < 0) {
+            View view = mRoot.findViewById(id);
+            if(view != null) {
+                mViews.put(id, view);
+                mGeneration++;
+                slot = mViews.indexOfKey(id);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * @param slot      Slot returned by indexOfId() for the current generation
+     * @return          View at that slot
+     */
+    public View viewAt(int slot) {
+        return mViews.valueAt(slot);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /*
+     * Walk the tree depth first adding every view that has an id
+     */
+    private void index(View view) {
+        int id = view.getId();
+        if(id != View.NO_ID && mViews.indexOfKey(id) < 0) {
+            mViews.put(id, view);
+        }
+        if(view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for(int i = 0, n = group.getChildCount(); i < n; i++) {
+                index(group.getChildAt(i));
+            }
+        }
+    }
+}
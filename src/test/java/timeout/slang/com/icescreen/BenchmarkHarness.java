@@ -0,0 +1,149 @@
+package timeout.slang.com.icescreen;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Minimal JMH style harness for the navigation benchmarks. Each op is timed on its own so we get
+ * latency percentiles as well as throughput, and allocations are read from the thread's allocated
+ * byte counter around the measured loop (the timing itself doesn't allocate)
+ */
+class BenchmarkHarness {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * HotSpot's extension of ThreadMXBean, null on VMs without it
+     */
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    /*------------------------------------------------------------------------------------------
+     * Package Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Run an op, first to warm up then measured
+     * @param name          Name used in the report
+     * @param warmup        Number of unmeasured ops
+     * @param iterations    Number of measured ops
+     * @param op            Op to run, handed its iteration number
+     * @return              Results of the measured ops
+     */
+    static Result measure(String name, int warmup, int iterations, Op op) throws Exception {
+        for(int i = 0; i < warmup; i++) {
+            op.run(i);
+        }
+
+        long[] timings = new long[iterations];
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = allocatedBytes(thread);
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            long opStart = System.nanoTime();
+            op.run(i);
+            timings[i] = System.nanoTime() - opStart;
+        }
+        long total = System.nanoTime() - start;
+        long bytesAfter = allocatedBytes(thread);
+
+        Arrays.sort(timings);
+        long bytesPerOp = bytesBefore < 0 || bytesAfter < 0 ? -1 : (bytesAfter - bytesBefore) / iterations;
+        return new Result(name, iterations, total, timings, bytesPerOp);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    private static long allocatedBytes(long thread) {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(thread) : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if(sunBean.isThreadAllocatedMemorySupported()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+                return sunBean;
+            }
+        }
+        return null;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Interface: Op
+     *
+     * Description:
+     * A single benchmarked operation
+     ------------------------------------------------------------------------------------------*/
+
+    interface Op {
+
+        /**
+         * @param iteration     Iteration number, counts from 0 for the warmup and again for the
+         *                      measured ops
+         */
+        void run(int iteration) throws Exception;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: Result
+     *
+     * Description:
+     * Throughput, latency percentiles and allocation rate of a measured run
+     ------------------------------------------------------------------------------------------*/
+
+    static class Result {
+
+        private final String mName;
+
+        private final int mIterations;
+
+        private final long mTotalNanos;
+
+        private final long[] mSortedTimings;
+
+        private final long mBytesPerOp;
+
+        private Result(String name, int iterations, long totalNanos, long[] sortedTimings, long bytesPerOp) {
+            mName = name;
+            mIterations = iterations;
+            mTotalNanos = totalNanos;
+            mSortedTimings = sortedTimings;
+            mBytesPerOp = bytesPerOp;
+        }
+
+        /**
+         * @return      Ops per second across the measured run
+         */
+        double getThroughput() {
+            return mIterations * 1e9 / mTotalNanos;
+        }
+
+        /**
+         * @param percentile    0 to 1
+         * @return              Latency of the op at that percentile in ns
+         */
+        long getPercentile(double percentile) {
+            int index = (int) Math.ceil(percentile * mSortedTimings.length) - 1;
+            return mSortedTimings[Math.max(0, Math.min(index, mSortedTimings.length - 1))];
+        }
+
+        /**
+         * @return      Bytes allocated per op, -1 if the VM can't tell us
+         */
+        long getBytesPerOp() {
+            return mBytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-28s %12.0f ops/s  p50=%8dns  p90=%8dns  p99=%8dns  max=%9dns  alloc=%6d B/op",
+                    mName, getThroughput(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99),
+                    mSortedTimings[mSortedTimings.length - 1], mBytesPerOp);
+        }
+    }
+}
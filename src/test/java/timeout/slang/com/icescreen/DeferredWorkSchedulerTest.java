@@ -0,0 +1,168 @@
+package timeout.slang.com.icescreen;
+
+import android.view.LayoutInflater;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Work deferred by screens, driven a frame at a time through a HeadlessScreenHost. Each
+ * runPending() is one frame followed by an idle pass. Transitions don't run headless, so work
+ * put off until after the transition is due straight away
+ */
+public class DeferredWorkSchedulerTest {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private HeadlessScreenHost mHost;
+
+    private ScreenControllerManager mManager;
+
+    /**
+     * Tags of the work that's run, in the order it ran
+     */
+    private final List<String> mRun = new ArrayList<>();
+
+    /*------------------------------------------------------------------------------------------
+     * Set up
+     ------------------------------------------------------------------------------------------*/
+
+    @Before
+    public void setUp() {
+        mHost = new HeadlessScreenHost();
+        mManager = new ScreenControllerManager();
+        mManager.onContextChange(mHost);
+        mManager.initialise();
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Tests
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Work waiting on the first frame becomes due once it's drawn and runs on the frame after
+     */
+    @Test
+    public void afterFirstFrameRunsAfterFrame() {
+        TestScreen screen = new TestScreen();
+        mManager.pushScreen(screen);
+
+        screen.defer(DeferredWorkScheduler.AFTER_FIRST_FRAME, work("first"));
+        assertTrue(mRun.isEmpty());
+
+        mHost.runPending();
+        assertTrue(mRun.isEmpty());
+
+        mHost.runPending();
+        assertEquals(Arrays.asList("first"), mRun);
+    }
+
+    @Test
+    public void droppedWhenScreenPopped() {
+        TestScreen first = new TestScreen();
+        TestScreen second = new TestScreen();
+        mManager.pushScreen(first);
+        mManager.pushScreen(second);
+
+        second.defer(DeferredWorkScheduler.AFTER_FIRST_FRAME, work("frame"));
+        second.defer(DeferredWorkScheduler.AFTER_TRANSITION, work("transition"));
+        second.defer(DeferredWorkScheduler.AT_IDLE, work("idle"));
+        first.defer(DeferredWorkScheduler.AFTER_TRANSITION, work("kept"));
+        mManager.popScreen();
+
+        mHost.runPending();
+        mHost.runPending();
+        mHost.runPending();
+
+        assertEquals(Arrays.asList("kept"), mRun);
+    }
+
+    /**
+     * With no budget one piece of work runs per frame, in the order it was deferred
+     */
+    @Test
+    public void readyWorkRunsInOrderWithinBudget() {
+        TestScreen screen = new TestScreen();
+        mManager.pushScreen(screen);
+        mManager.setDeferredWorkBudget(0);
+
+        screen.defer(DeferredWorkScheduler.AFTER_TRANSITION, work("a"));
+        screen.defer(DeferredWorkScheduler.AFTER_TRANSITION, work("b"));
+        screen.defer(DeferredWorkScheduler.AFTER_TRANSITION, work("c"));
+
+        mHost.runPending();
+        assertEquals(Arrays.asList("a"), mRun);
+        mHost.runPending();
+        assertEquals(Arrays.asList("a", "b"), mRun);
+        mHost.runPending();
+        assertEquals(Arrays.asList("a", "b", "c"), mRun);
+    }
+
+    /**
+     * A budget that isn't used up runs everything that's ready in one frame
+     */
+    @Test
+    public void readyWorkSharesFrameUnderBudget() {
+        TestScreen screen = new TestScreen();
+        mManager.pushScreen(screen);
+        mManager.setDeferredWorkBudget(Long.MAX_VALUE);
+
+        screen.defer(DeferredWorkScheduler.AFTER_TRANSITION, work("a"));
+        screen.defer(DeferredWorkScheduler.AFTER_TRANSITION, work("b"));
+
+        mHost.runPending();
+        assertEquals(Arrays.asList("a", "b"), mRun);
+    }
+
+    @Test
+    public void nothingRunsBetweenContexts() {
+        TestScreen screen = new TestScreen();
+        mManager.pushScreen(screen);
+        screen.defer(DeferredWorkScheduler.AFTER_TRANSITION, work("a"));
+
+        mManager.onPreContextChange();
+        mHost.runPending();
+        assertTrue(mRun.isEmpty());
+
+        mManager.onContextChange(mHost);
+        mHost.runPending();
+        assertEquals(Arrays.asList("a"), mRun);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    private Runnable work(final String tag) {
+        return new Runnable() {
+            public void run() {
+                mRun.add(tag);
+            }
+        };
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: TestScreen
+     *
+     * Description:
+     * Screen that's never inflated - the headless host doesn't create views
+     ------------------------------------------------------------------------------------------*/
+
+    public static class TestScreen extends ScreenController {
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            throw new IllegalStateException("Headless screens aren't inflated");
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package timeout.slang.com.icescreen;
+
+import android.view.LayoutInflater;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks the ScreenControllerManager's own overhead with a HeadlessScreenHost - no Activity,
+ * no views and no Robolectric, just the stack logic on a plain JVM. Skipped unless asked for, run
+ * with:
+ *
+ *      ./gradlew testDebugUnitTest -Pbenchmark
+ */
+public class HeadlessNavigationBenchmark {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    private static final int DEEP_STACK = 150;
+
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private HeadlessScreenHost mHost;
+
+    private ScreenControllerManager mManager;
+
+    /*------------------------------------------------------------------------------------------
+     * Set up
+     ------------------------------------------------------------------------------------------*/
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("icescreen.benchmark"));
+
+        mHost = new HeadlessScreenHost();
+        mManager = new ScreenControllerManager();
+        mManager.onContextChange(mHost);
+        mManager.initialise();
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Benchmarks
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Push to DEEP_STACK screens then pop back down to nothing. One op is a push or a pop
+     */
+    @Test
+    public void deepStackPushPop() throws Exception {
+        final HeadlessScreen[] screens = createScreens(DEEP_STACK);
+        report(BenchmarkHarness.measure("headless deepStackPushPop", WARMUP, ITERATIONS,
+                new BenchmarkHarness.Op() {
+            public void run(int iteration) {
+                int position = iteration % (DEEP_STACK * 2);
+                if(position < DEEP_STACK) {
+                    mManager.pushScreen(screens[position]);
+                } else {
+                    mManager.popScreen();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Push one screen over a small stack and pop it straight off again. One op is the push + pop
+     */
+    @Test
+    public void rapidPushPop() throws Exception {
+        for(HeadlessScreen screen : createScreens(3)) {
+            mManager.pushScreen(screen);
+        }
+        final HeadlessScreen top = new HeadlessScreen();
+        report(BenchmarkHarness.measure("headless rapidPushPop", WARMUP, ITERATIONS,
+                new BenchmarkHarness.Op() {
+            public void run(int iteration) {
+                mManager.pushScreen(top);
+                mManager.popScreen();
+            }
+        }));
+    }
+
+    /**
+     * Replace a DEEP_STACK stack with itself and pop back to its root. One op is the setStack +
+     * popTo
+     */
+    @Test
+    public void setStackPopTo() throws Exception {
+        final List<HeadlessScreen> stack = Arrays.asList(createScreens(DEEP_STACK));
+        report(BenchmarkHarness.measure("headless setStackPopTo", WARMUP / 100, ITERATIONS / 100,
+                new BenchmarkHarness.Op() {
+            public void run(int iteration) {
+                mManager.setStack(stack);
+                mManager.popTo(stack.get(0));
+            }
+        }));
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    private static HeadlessScreen[] createScreens(int count) {
+        HeadlessScreen[] screens = new HeadlessScreen[count];
+        for(int i = 0; i < count; i++) {
+            screens[i] = new HeadlessScreen();
+        }
+        return screens;
+    }
+
+    private static void report(BenchmarkHarness.Result result) {
+        System.out.println(result);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: HeadlessScreen
+     *
+     * Description:
+     * Screen that's never inflated - the headless host doesn't create views
+     ------------------------------------------------------------------------------------------*/
+
+    public static class HeadlessScreen extends ScreenController {
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            throw new IllegalStateException("Headless screens aren't inflated");
+        }
+    }
+}
@@ -0,0 +1,597 @@
+package timeout.slang.com.icescreen;
+
+import android.view.LayoutInflater;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Behaviour of the ScreenControllerManager's stack with a HeadlessScreenHost - no Activity, no
+ * views and no Robolectric. Screens are never inflated so each test checks which screens end up
+ * on top and how often they're told they're active
+ */
+public class HeadlessNavigationTest {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private HeadlessScreenHost mHost;
+
+    private ScreenControllerManager mManager;
+
+    /*------------------------------------------------------------------------------------------
+     * Set up
+     ------------------------------------------------------------------------------------------*/
+
+    @Before
+    public void setUp() {
+        mHost = new HeadlessScreenHost();
+        mManager = new ScreenControllerManager();
+        mManager.onContextChange(mHost);
+        mManager.initialise();
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Tests
+     ------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void pushActivatesTop() {
+        TestScreen first = new TestScreen();
+        TestScreen second = new TestScreen();
+
+        mManager.pushScreen(first);
+        mManager.pushScreen(second);
+
+        assertSame(second, mManager.peekScreen());
+        assertEquals(2, mManager.getScreenCount());
+        assertEquals(1, first.mActivations);
+        assertEquals(1, second.mActivations);
+    }
+
+    @Test
+    public void popRevealsScreenBelow() {
+        TestScreen first = new TestScreen();
+        TestScreen second = new TestScreen();
+        mManager.pushScreen(first);
+        mManager.pushScreen(second);
+
+        assertSame(second, mManager.popScreen());
+
+        assertSame(first, mManager.peekScreen());
+        assertEquals(1, mManager.getScreenCount());
+        assertEquals(2, first.mActivations);
+    }
+
+    @Test
+    public void popEmptyStack() {
+        assertNull(mManager.popScreen());
+
+        mManager.pushScreen(new TestScreen());
+        mManager.popScreen();
+
+        assertNull(mManager.peekScreen());
+        assertNull(mManager.popScreen());
+    }
+
+    @Test
+    public void popToScreenSkipsScreensInBetween() {
+        TestScreen[] screens = pushScreens(4);
+
+        List<ScreenController> popped = mManager.popTo(screens[1]);
+
+        assertEquals(Arrays.<ScreenController>asList(screens[3], screens[2]), popped);
+        assertSame(screens[1], mManager.peekScreen());
+        assertEquals(2, screens[1].mActivations);
+        assertEquals(1, screens[2].mActivations);
+    }
+
+    @Test
+    public void popToClass() {
+        TestScreen first = new TestScreen();
+        mManager.pushScreen(first);
+        mManager.pushScreen(new OtherScreen());
+        mManager.pushScreen(new OtherScreen());
+
+        assertEquals(2, mManager.popTo(TestScreen.class).size());
+        assertSame(first, mManager.peekScreen());
+    }
+
+    @Test
+    public void popToScreenNotInStack() {
+        TestScreen[] screens = pushScreens(2);
+
+        assertEquals(0, mManager.popTo(new TestScreen()).size());
+        assertEquals(0, mManager.popTo(OtherScreen.class).size());
+        assertSame(screens[1], mManager.peekScreen());
+    }
+
+    @Test
+    public void setStackActivatesOnlyNewTop() {
+        TestScreen[] old = pushScreens(2);
+        TestScreen[] screens = { new TestScreen(), new TestScreen(), old[0] };
+
+        mManager.setStack(Arrays.asList(screens));
+
+        assertSame(old[0], mManager.peekScreen());
+        assertEquals(3, mManager.getScreenCount());
+        assertEquals(0, screens[0].mActivations);
+        assertEquals(0, screens[1].mActivations);
+        assertEquals(2, old[0].mActivations);
+
+        // Screens that were kept are popped back to like any other
+        mManager.popScreen();
+        assertSame(screens[1], mManager.peekScreen());
+        assertEquals(1, screens[1].mActivations);
+    }
+
+    @Test
+    public void opsBetweenContextsActivateOnlyFinalTop() {
+        TestScreen first = new TestScreen();
+        mManager.pushScreen(first);
+        mManager.onPreContextChange();
+
+        TestScreen second = new TestScreen();
+        TestScreen third = new TestScreen();
+        mManager.pushScreen(second);
+        mManager.popScreen();
+        mManager.pushScreen(third);
+        assertEquals(0, third.mActivations);
+
+        mManager.onContextChange(mHost);
+
+        assertSame(third, mManager.peekScreen());
+        assertEquals(0, second.mActivations);
+        assertEquals(1, third.mActivations);
+        assertEquals(1, first.mActivations);
+    }
+
+    @Test
+    public void switchToEmptyStackAndBack() {
+        TestScreen first = new TestScreen();
+        mManager.pushScreen(first);
+
+        mManager.switchStack("other");
+        assertEquals("other", mManager.getStackName());
+        assertNull(mManager.peekScreen());
+
+        TestScreen other = new TestScreen();
+        mManager.pushScreen(other);
+        mManager.switchStack(ScreenControllerManager.DEFAULT_STACK);
+
+        assertSame(first, mManager.peekScreen());
+        assertEquals(2, first.mActivations);
+        assertEquals(1, other.mActivations);
+
+        // Emptying the stack on screen leaves nothing displayed, switching back shows its top
+        mManager.popScreen();
+        mManager.switchStack("other");
+        assertSame(other, mManager.peekScreen());
+        assertEquals(2, other.mActivations);
+    }
+
+    @Test
+    public void memoryBudgetReleasesDeepestUntilUnder() {
+        BudgetScreen[] screens = new BudgetScreen[5];
+        for(int i = 0; i < screens.length; i++) {
+            screens[i] = new BudgetScreen(100);
+            mManager.pushScreen(screens[i]);
+        }
+
+        // 500 retained, the three deepest have to go to get to 250
+        mManager.setMemoryBudget(250);
+
+        assertTrue(screens[0].isStateReleased());
+        assertTrue(screens[1].isStateReleased());
+        assertTrue(screens[2].isStateReleased());
+        assertFalse(screens[3].isStateReleased());
+        assertFalse(screens[4].isStateReleased());
+
+        // Revealed screens get their state back and count towards the budget again
+        mManager.popTo(screens[2]);
+        assertEquals(1, screens[2].mRestores);
+        assertFalse(screens[2].isStateReleased());
+        assertTrue(screens[1].isStateReleased());
+    }
+
+    @Test
+    public void memoryBudgetNeverReleasesTop() {
+        BudgetScreen screen = new BudgetScreen(1000);
+        mManager.pushScreen(screen);
+
+        mManager.setMemoryBudget(1);
+
+        assertFalse(screen.isStateReleased());
+    }
+
+    @Test(expected = IllegalAccessError.class)
+    public void opsOffMainThrow() throws Throwable {
+        final Throwable[] thrown = new Throwable[1];
+        Thread worker = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    mManager.pushScreen(new TestScreen());
+                } catch(Throwable t) {
+                    thrown[0] = t;
+                }
+            }
+        });
+        worker.start();
+        worker.join();
+        if(thrown[0] != null) {
+            throw thrown[0];
+        }
+    }
+
+    /**
+     * Checked before the stack is looked at, even when there's nothing to pop
+     */
+    @Test(expected = IllegalAccessError.class)
+    public void popToClassOffMainThrows() throws Throwable {
+        final Throwable[] thrown = new Throwable[1];
+        Thread worker = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    mManager.popTo(OtherScreen.class);
+                } catch(Throwable t) {
+                    thrown[0] = t;
+                }
+            }
+        });
+        worker.start();
+        worker.join();
+        if(thrown[0] != null) {
+            throw thrown[0];
+        }
+    }
+
+    @Test
+    public void resultDeliveredAfterReveal() {
+        ResultScreen first = new ResultScreen();
+        TestScreen second = new TestScreen();
+        mManager.pushScreen(first);
+        first.pushScreenForResult(second, 7);
+
+        second.setResult(ScreenResult.RESULT_OK, 42L);
+        mManager.popScreen();
+
+        assertEquals(1, first.mResults);
+        assertEquals(2, first.mActivationsAtResult);
+        assertEquals(7, first.mRequestCode);
+        assertEquals(ScreenResult.RESULT_OK, first.mResultCode);
+        assertEquals(42L, first.mLong);
+    }
+
+    @Test
+    public void resultCancelledWithoutSetResult() {
+        ResultScreen first = new ResultScreen();
+        mManager.pushScreen(first);
+        first.pushScreenForResult(new TestScreen(), 1);
+
+        mManager.popScreen();
+
+        assertEquals(1, first.mResults);
+        assertEquals(ScreenResult.RESULT_CANCELED, first.mResultCode);
+    }
+
+    @Test
+    public void resultBetweenContextsQueuedUntilContextChange() {
+        ResultScreen first = new ResultScreen();
+        TestScreen second = new TestScreen();
+        mManager.pushScreen(first);
+        first.pushScreenForResult(second, 3);
+        mManager.onPreContextChange();
+
+        second.setResult(ScreenResult.RESULT_OK, "value");
+        mManager.popScreen();
+        assertEquals(0, first.mResults);
+
+        mManager.onContextChange(mHost);
+
+        assertEquals(1, first.mResults);
+        assertEquals(2, first.mActivationsAtResult);
+        assertEquals("value", first.mValue);
+    }
+
+    @Test
+    public void resultDroppedWhenTargetLeavesFirst() {
+        ResultScreen first = new ResultScreen();
+        TestScreen second = new TestScreen();
+        mManager.pushScreen(first);
+        first.pushScreenForResult(second, 1);
+        mManager.onPreContextChange();
+
+        // The result arrives but first goes before it's revealed
+        second.setResult(ScreenResult.RESULT_OK, "value");
+        mManager.popScreen();
+        mManager.popScreen();
+        mManager.onContextChange(mHost);
+        mManager.pushScreen(first);
+
+        assertEquals(0, first.mResults);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void resultTargetNotInStackThrows() {
+        mManager.pushScreen(new TestScreen());
+
+        mManager.pushScreenForResult(new ResultScreen(), new TestScreen(), 1);
+    }
+
+    /**
+     * Handing back a primitive doesn't allocate once the screens' result holders exist
+     */
+    @Test
+    public void primitiveResultDeliveryDoesntAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+        long thread = Thread.currentThread().getId();
+
+        ResultScreen first = new ResultScreen();
+        TestScreen second = new TestScreen();
+        mManager.pushScreen(first);
+        for(int i = 0; i < 20000; i++) {
+            pushForResultAndPop(first, second, i);
+        }
+
+        int cycles = 10000;
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < cycles; i++) {
+            pushForResultAndPop(first, second, i);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(cycles - 1, first.mLong);
+        assertTrue("Allocated " + allocated + " bytes over " + cycles + " results", allocated < cycles);
+    }
+
+    /**
+     * A successor inflated while main was idle is used when it's pushed, anything else pushed
+     * counts as a miss. Reveals don't count either way
+     */
+    @Test
+    public void preInflateHitsAndMisses() {
+        InflatingHost host = new InflatingHost();
+        ScreenControllerManager manager = inflatingManager(host);
+        ViewScreen next = new ViewScreen();
+
+        manager.pushScreen(new ViewScreen(next));
+        assertEquals(1, manager.getPreInflateMissCount());
+        host.runPending();
+        assertEquals(1, next.mCreated);
+
+        manager.pushScreen(next);
+        assertEquals(1, next.mCreated);
+        assertEquals(1, manager.getPreInflateHitCount());
+
+        manager.pushScreen(new ViewScreen());
+        manager.popScreen();
+        assertEquals(1, manager.getPreInflateHitCount());
+        assertEquals(2, manager.getPreInflateMissCount());
+    }
+
+    /**
+     * A successor that's already in a stack, even one that isn't being shown, isn't pre-inflated
+     */
+    @Test
+    public void preInflateSkipsScreensInAnyStack() {
+        InflatingHost host = new InflatingHost();
+        ScreenControllerManager manager = inflatingManager(host);
+        ViewScreen parked = new ViewScreen();
+        manager.switchStack("tab");
+        manager.pushScreen(parked);
+        manager.switchStack(ScreenControllerManager.DEFAULT_STACK);
+
+        manager.pushScreen(new ViewScreen(parked));
+        host.runPending();
+
+        assertEquals(1, parked.mCreated);
+    }
+
+    /**
+     * Views dropped from a cache without being handed out go through the evict listener, so
+     * they're released the same way whichever way they leave
+     */
+    @Test
+    public void viewCacheRemoveEvicts() {
+        final List<View> evicted = new ArrayList<>();
+        ScreenViewCache cache = new ScreenViewCache(2, 10);
+        cache.setOnEvictListener(new ScreenViewCache.OnEvictListener() {
+            public void onEvicted(ScreenController screen, View view) {
+                evicted.add(view);
+            }
+        });
+        TestScreen screen = new TestScreen();
+        View view = new View(null);
+        cache.put(screen, view);
+
+        cache.remove(screen);
+        cache.remove(screen);
+
+        assertEquals(Arrays.asList(view), evicted);
+        assertFalse(cache.contains(screen));
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    private void pushForResultAndPop(ResultScreen from, TestScreen screen, long value) {
+        from.pushScreenForResult(screen, 1);
+        screen.setResult(ScreenResult.RESULT_OK, value);
+        mManager.popScreen();
+    }
+
+    private static ScreenControllerManager inflatingManager(InflatingHost host) {
+        ScreenControllerManager manager = new ScreenControllerManager();
+        manager.onContextChange(host);
+        manager.initialise();
+        return manager;
+    }
+
+    private TestScreen[] pushScreens(int count) {
+        TestScreen[] screens = new TestScreen[count];
+        for(int i = 0; i < count; i++) {
+            screens[i] = new TestScreen();
+            mManager.pushScreen(screens[i]);
+        }
+        return screens;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: TestScreen
+     *
+     * Description:
+     * Screen that counts how often it's made active, never inflated - the headless host doesn't
+     * create views
+     ------------------------------------------------------------------------------------------*/
+
+    public static class TestScreen extends ScreenController {
+
+        int mActivations;
+
+        @Override
+        protected void onSetActive() {
+            mActivations++;
+        }
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            throw new IllegalStateException("Headless screens aren't inflated");
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: BudgetScreen
+     *
+     * Description:
+     * Screen with a fixed estimate that drops to nothing once it's released its state
+     ------------------------------------------------------------------------------------------*/
+
+    public static class BudgetScreen extends TestScreen {
+
+        private final long mEstimate;
+
+        private boolean mReleased;
+
+        int mRestores;
+
+        public BudgetScreen(long estimate) {
+            mEstimate = estimate;
+        }
+
+        @Override
+        protected long getRetainedMemoryEstimate() {
+            return mReleased ? 0 : mEstimate;
+        }
+
+        @Override
+        protected boolean onReleaseState(ScreenControllerData data) {
+            mReleased = true;
+            return true;
+        }
+
+        @Override
+        protected void onRestoreState(ScreenControllerData data) {
+            mReleased = false;
+            mRestores++;
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: ResultScreen
+     *
+     * Description:
+     * Screen that copies out the last result it was handed
+     ------------------------------------------------------------------------------------------*/
+
+    public static class ResultScreen extends TestScreen {
+
+        int mResults;
+        int mActivationsAtResult;
+        int mRequestCode;
+        int mResultCode;
+        long mLong;
+        Object mValue;
+
+        @Override
+        protected void onScreenResult(ScreenResult result) {
+            mResults++;
+            mActivationsAtResult = mActivations;
+            mRequestCode = result.getRequestCode();
+            mResultCode = result.getResultCode();
+            mLong = result.getLong();
+            mValue = result.getValue(Object.class);
+        }
+    }
+
+    public static class OtherScreen extends ScreenController {
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            throw new IllegalStateException("Headless screens aren't inflated");
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: InflatingHost
+     *
+     * Description:
+     * Headless host that does create views, so pre-inflation has something to keep. They're plain
+     * android.jar views and never displayed
+     ------------------------------------------------------------------------------------------*/
+
+    public static class InflatingHost extends HeadlessScreenHost {
+
+        @Override
+        public View inflate(ScreenController screen) {
+            return screen.createView(null);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: ViewScreen
+     *
+     * Description:
+     * Screen that counts how often its view is created and names what's likely to come next
+     ------------------------------------------------------------------------------------------*/
+
+    public static class ViewScreen extends TestScreen {
+
+        private final List<ViewScreen> mSuccessors;
+
+        int mCreated;
+
+        public ViewScreen(ViewScreen... successors) {
+            mSuccessors = Arrays.asList(successors);
+        }
+
+        @Override
+        protected List<? extends ScreenController> getLikelySuccessors() {
+            return mSuccessors;
+        }
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            mCreated++;
+            return new View(null);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package timeout.slang.com.icescreen;
+
+import android.app.Activity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.animation.Animation;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks for the ScreenControllerManager hot paths. Skipped unless asked for, run with:
+ *
+ *      ./gradlew testDebugUnitTest -Pbenchmark
+ *
+ * Screens have no animations so transitions finish straight away and the numbers are the
+ * manager's own overhead plus view creation. Screens are created up front so allocations per op
+ * are the manager's, not the benchmark's
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class NavigationBenchmark {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    private static final int DEEP_STACK = 150;
+    private static final int ROTATION_STACK = 50;
+    private static final int SAFE_REFS = 200;
+    private static final int LARGE_LAYOUT_VIEWS = 2000;
+
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 10000;
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private Activity[] mActivities;
+
+    private ScreenControllerManager mManager;
+
+    /*------------------------------------------------------------------------------------------
+     * Set up
+     ------------------------------------------------------------------------------------------*/
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("icescreen.benchmark"));
+
+        mActivities = new Activity[] {
+                Robolectric.buildActivity(Activity.class).create().get(),
+                Robolectric.buildActivity(Activity.class).create().get()
+        };
+        mManager = new ScreenControllerManager();
+        mManager.onContextChange(mActivities[0]);
+        mManager.initialise();
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Benchmarks
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Push to DEEP_STACK screens then pop back down to nothing, over and over. One op is a push or
+     * a pop
+     */
+    @Test
+    public void deepStackPushPop() throws Exception {
+        final BenchScreen[] screens = createScreens(DEEP_STACK, 10);
+        report(BenchmarkHarness.measure("deepStackPushPop", DEEP_STACK * 2 * 5, DEEP_STACK * 2 * 30,
+                new BenchmarkHarness.Op() {
+            public void run(int iteration) {
+                int position = iteration % (DEEP_STACK * 2);
+                if(position < DEEP_STACK) {
+                    mManager.pushScreen(screens[position]);
+                } else {
+                    mManager.popScreen();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Push one screen over a small stack and pop it straight off again. One op is the push + pop
+     */
+    @Test
+    public void rapidPushPop() throws Exception {
+        for(BenchScreen screen : createScreens(3, 10)) {
+            mManager.pushScreen(screen);
+        }
+        final BenchScreen top = new BenchScreen(10);
+        report(BenchmarkHarness.measure("rapidPushPop", WARMUP, ITERATIONS, new BenchmarkHarness.Op() {
+            public void run(int iteration) {
+                mManager.pushScreen(top);
+                mManager.popScreen();
+            }
+        }));
+    }
+
+    /**
+     * Rotate between two Activities with ROTATION_STACK screens in the stack and SAFE_REFS views
+     * on the top one, resolving every SafeRef after each rotation. One op is the whole rotation
+     */
+    @Test
+    public void rotationWithSafeRefs() throws Exception {
+        for(BenchScreen screen : createScreens(ROTATION_STACK - 1, 10)) {
+            mManager.pushScreen(screen);
+        }
+        mManager.pushScreen(new BenchScreen(SAFE_REFS + 1));
+        final List<SafeRef<View>> refs = createRefs(SAFE_REFS);
+
+        report(BenchmarkHarness.measure("rotationWithSafeRefs", WARMUP / 10, ITERATIONS / 10,
+                new BenchmarkHarness.Op() {
+            public void run(int iteration) {
+                mManager.onPreContextChange();
+                mManager.onContextChange(mActivities[(iteration + 1) % 2]);
+                resolve(refs);
+            }
+        }));
+    }
+
+    /**
+     * Resolve SAFE_REFS SafeRefs against a tree that isn't changing. One op resolves all of them
+     */
+    @Test
+    public void safeRefGet() throws Exception {
+        mManager.pushScreen(new BenchScreen(SAFE_REFS + 1));
+        final List<SafeRef<View>> refs = createRefs(SAFE_REFS);
+        resolve(refs);
+
+        report(BenchmarkHarness.measure("safeRefGet x" + SAFE_REFS, WARMUP, ITERATIONS,
+                new BenchmarkHarness.Op() {
+            public void run(int iteration) {
+                resolve(refs);
+            }
+        }));
+    }
+
+    /**
+     * Push a small screen over one with LARGE_LAYOUT_VIEWS views and pop back to it. The large tree
+     * is bigger than the default view cache so this measures re-creating it on reveal. One op is
+     * the push + pop
+     */
+    @Test
+    public void largeLayoutReveal() throws Exception {
+        mManager.pushScreen(new BenchScreen(LARGE_LAYOUT_VIEWS));
+        final BenchScreen top = new BenchScreen(10);
+
+        report(BenchmarkHarness.measure("largeLayoutReveal", WARMUP / 10, ITERATIONS / 10,
+                new BenchmarkHarness.Op() {
+            public void run(int iteration) {
+                mManager.pushScreen(top);
+                mManager.popScreen();
+            }
+        }));
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    private static BenchScreen[] createScreens(int count, int views) {
+        BenchScreen[] screens = new BenchScreen[count];
+        for(int i = 0; i < count; i++) {
+            screens[i] = new BenchScreen(views);
+        }
+        return screens;
+    }
+
+    private List<SafeRef<View>> createRefs(int count) {
+        List<SafeRef<View>> refs = new ArrayList<>();
+        for(int i = 1; i <= count; i++) {
+            refs.add(mManager.getView(i));
+        }
+        return refs;
+    }
+
+    private static void resolve(List<SafeRef<View>> refs) {
+        for(int i = 0, n = refs.size(); i < n; i++) {
+            if(refs.get(i).get() == null) {
+                throw new AssertionError("SafeRef " + i + " didn't resolve");
+            }
+        }
+    }
+
+    private static void report(BenchmarkHarness.Result result) {
+        System.out.println(result);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: BenchScreen
+     *
+     * Description:
+     * Screen with a flat tree of views, ids 1 to views - 1, and no animations
+     ------------------------------------------------------------------------------------------*/
+
+    public static class BenchScreen extends ScreenController {
+
+        private final int mViews;
+
+        public BenchScreen() {
+            this(1);
+        }
+
+        public BenchScreen(int views) {
+            mViews = views;
+        }
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            FrameLayout root = new FrameLayout(inflater.getContext());
+            for(int i = 1; i < mViews; i++) {
+                View child = new View(inflater.getContext());
+                child.setId(i);
+                root.addView(child);
+            }
+            return root;
+        }
+
+        @Override
+        protected Animation getOnPushAnimation() {
+            return null;
+        }
+
+        @Override
+        protected Animation getOnPopAnimation() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package timeout.slang.com.icescreen;
+
+import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.MutableContextWrapper;
+import android.content.pm.ActivityInfo;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.animation.AlphaAnimation;
+import android.view.animation.Animation;
+import android.widget.CheckBox;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Behaviour of the ScreenControllerManager in a real (Robolectric) Activity, where screens are
+ * inflated and transitions run. The main looper is paused so posted renders and transition ends
+ * only happen when a test runs them
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class NavigationTest {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private Activity mActivity;
+
+    private ScreenControllerManager mManager;
+
+    /*------------------------------------------------------------------------------------------
+     * Set up
+     ------------------------------------------------------------------------------------------*/
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+
+        mActivity = Robolectric.buildActivity(Activity.class).create().get();
+        mManager = new ScreenControllerManager();
+        mManager.onContextChange(mActivity);
+        mManager.initialise();
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Tests
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Ops arriving while a transition runs collapse into one render of the final top, screens
+     * covered in the meantime are never inflated
+     */
+    @Test
+    public void opsDuringTransitionRenderOnce() {
+        TestScreen first = new TestScreen();
+        TestScreen second = new TestScreen();
+        TestScreen third = new TestScreen();
+
+        mManager.pushScreen(first);
+        assertEquals(1, first.mCreated);
+
+        // First screen's transition is still running, these just change the stack
+        mManager.pushScreen(second);
+        mManager.pushScreen(third);
+        assertEquals(0, second.mCreated);
+        assertEquals(0, third.mCreated);
+
+        ShadowLooper.runUiThreadTasks();
+
+        assertSame(third, mManager.peekScreen());
+        assertEquals(0, second.mCreated);
+        assertEquals(0, second.mActivations);
+        assertEquals(1, third.mCreated);
+        assertEquals(1, third.mActivations);
+    }
+
+    /**
+     * A push and pop that cancel out while a transition runs leave the display alone
+     */
+    @Test
+    public void opsThatCancelOutDontRender() {
+        TestScreen first = new TestScreen();
+        TestScreen second = new TestScreen();
+        mManager.pushScreen(first);
+
+        mManager.pushScreen(second);
+        mManager.popScreen();
+        ShadowLooper.runUiThreadTasks();
+
+        assertSame(first, mManager.peekScreen());
+        assertEquals(1, first.mCreated);
+        assertEquals(1, first.mActivations);
+        assertEquals(0, second.mCreated);
+    }
+
+    /**
+     * The top of a stack that's switched away from keeps its view outside the view cache, so
+     * switching back doesn't inflate even with the cache off
+     */
+    @Test
+    public void switchingBackReusesTopView() {
+        mManager.setViewCacheSize(0, 0);
+        TestScreen first = new TestScreen();
+        mManager.pushScreen(first);
+
+        // Empty stack, the first screen's view is hidden and kept with the default stack
+        mManager.switchStack("other");
+        mManager.switchStack(ScreenControllerManager.DEFAULT_STACK);
+        ShadowLooper.runUiThreadTasks();
+
+        assertSame(first, mManager.peekScreen());
+        assertEquals(1, first.mCreated);
+        assertEquals(2, first.mActivations);
+    }
+
+    /**
+     * Views kept with inactive stacks go under memory pressure
+     */
+    @Test
+    public void trimReleasesStackViews() {
+        TestScreen first = new TestScreen();
+        mManager.pushScreen(first);
+        mManager.switchStack("other");
+        mManager.pushScreen(new TestScreen());
+        ShadowLooper.runUiThreadTasks();
+
+        mManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        mManager.switchStack(ScreenControllerManager.DEFAULT_STACK);
+        ShadowLooper.runUiThreadTasks();
+
+        assertSame(first, mManager.peekScreen());
+        assertEquals(2, first.mCreated);
+    }
+
+    /**
+     * The transition engine makes one root container per Activity and every push and pop reuses
+     * it. Only covers what the engine creates, not what push/pop allocate overall
+     */
+    @Test
+    public void transitionRootMadeOncePerActivity() {
+        TestScreen first = new TestScreen();
+        TestScreen second = new TestScreen();
+        mManager.pushScreen(first);
+        ShadowLooper.runUiThreadTasks();
+        int allocations = mManager.getTransitionAllocationCount();
+
+        for(int i = 0; i < 100; i++) {
+            mManager.pushScreen(second);
+            ShadowLooper.runUiThreadTasks();
+            mManager.popScreen();
+            ShadowLooper.runUiThreadTasks();
+        }
+        assertSame(first, mManager.peekScreen());
+        assertEquals(allocations, mManager.getTransitionAllocationCount());
+
+        // A new Activity needs a root of its own
+        mManager.onPreContextChange();
+        mManager.onContextChange(Robolectric.buildActivity(Activity.class).create().get());
+        assertEquals(allocations + 1, mManager.getTransitionAllocationCount());
+    }
+
+    /**
+     * A transition cut short by the next push is recorded against the screen that drove it, not
+     * the one that cut it short
+     */
+    @Test
+    public void transitionsRecordedAgainstTheirOwnScreen() {
+        ScreenMetricsRecorder recorder = new ScreenMetricsRecorder();
+        mManager.setMetrics(recorder);
+
+        mManager.pushScreen(new TestScreen());
+        mManager.pushScreen(new OtherScreen());
+        ShadowLooper.runUiThreadTasks();
+        mManager.popScreen();
+
+        final long[] transitions = new long[2];
+        recorder.snapshot(new ScreenMetricsRecorder.Visitor() {
+            public void visit(Class<? extends ScreenController> screenClass, int event, long count,
+                              long totalNanos, long maxNanos, long[] buckets) {
+                if(event == ScreenMetrics.EVENT_TRANSITION) {
+                    transitions[screenClass == TestScreen.class ? 0 : 1] += count;
+                }
+            }
+        });
+        assertEquals(1, transitions[0]);
+        assertEquals(1, transitions[1]);
+    }
+
+    /**
+     * A screen that's hidden when the stack is saved keeps its view state through process death,
+     * even though its tree was only ever in the view cache
+     */
+    @Test
+    public void hiddenScreenViewStateSurvivesProcessDeath() {
+        StateScreen first = new StateScreen();
+        mManager.pushScreen(first);
+        first.mCheckBox.setChecked(true);
+        mManager.pushScreen(new StateScreen());
+        ShadowLooper.runUiThreadTasks();
+
+        Bundle saved = new Bundle();
+        mManager.saveState(saved);
+
+        // New process - the first screen is only created once it's popped back to
+        ScreenControllerManager restored = new ScreenControllerManager();
+        assertTrue(restored.restoreState(saved));
+        restored.onContextChange(Robolectric.buildActivity(Activity.class).create().get());
+        restored.initialise();
+        restored.popScreen();
+
+        StateScreen revealed = (StateScreen) restored.peekScreen();
+        assertNotSame(first, revealed);
+        assertTrue(revealed.mCheckBox.isChecked());
+    }
+
+    /**
+     * A tree kept across a config change keeps the views it obtained, they're only let go if it's
+     * thrown away
+     */
+    @Test
+    public void retainedTreeKeepsObtainedViews() {
+        RetainingScreen screen = new RetainingScreen();
+        mManager.pushScreen(screen);
+        ShadowLooper.runUiThreadTasks();
+
+        mManager.onPreContextChange();
+        assertEquals(0, screen.mReleases);
+
+        mManager.onContextChange(Robolectric.buildActivity(Activity.class).create().get());
+        assertEquals(1, screen.mCreated);
+        assertEquals(0, screen.mReleases);
+    }
+
+    /**
+     * A worker inflates a tree that might be retained with a context that can be re-pointed, the
+     * same as main would
+     */
+    @Test
+    public void workerInflaterWrapsContextForRetainedTrees() {
+        ActivityScreenHost host = new ActivityScreenHost(mActivity);
+
+        assertTrue(host.getWorkerInflater(new RetainingScreen()).getContext() instanceof MutableContextWrapper);
+        assertSame(mActivity, host.getWorkerInflater(new TestScreen()).getContext());
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: TestScreen
+     *
+     * Description:
+     * Screen with an empty layout and a push animation long enough that it's still running when
+     * the next op arrives. Counts how often it's inflated and made active
+     ------------------------------------------------------------------------------------------*/
+
+    public static class TestScreen extends ScreenController {
+
+        private final Animation mPushAnimation = new AlphaAnimation(0, 1);
+
+        int mCreated;
+        int mActivations;
+
+        public TestScreen() {
+            mPushAnimation.setDuration(60000);
+        }
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            mCreated++;
+            return new FrameLayout(inflater.getContext());
+        }
+
+        @Override
+        protected void onSetActive() {
+            mActivations++;
+        }
+
+        @Override
+        protected Animation getOnPushAnimation() {
+            return mPushAnimation;
+        }
+    }
+
+    public static class OtherScreen extends TestScreen { }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: RetainingScreen
+     *
+     * Description:
+     * Screen whose tree survives a rotation, counts how often it's told to let go of what it
+     * obtained
+     ------------------------------------------------------------------------------------------*/
+
+    public static class RetainingScreen extends TestScreen {
+
+        int mReleases;
+
+        @Override
+        protected int getAbsorbedConfigChanges() {
+            return ActivityInfo.CONFIG_ORIENTATION;
+        }
+
+        @Override
+        void releaseObtainedViews(boolean recycle) {
+            mReleases++;
+            super.releaseObtainedViews(recycle);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: StateScreen
+     *
+     * Description:
+     * Screen with a check box whose state is saved with its tree, no animations so transitions
+     * finish straight away
+     ------------------------------------------------------------------------------------------*/
+
+    public static class StateScreen extends ScreenController {
+
+        CheckBox mCheckBox;
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            FrameLayout root = new FrameLayout(inflater.getContext());
+            mCheckBox = new CheckBox(inflater.getContext());
+            mCheckBox.setId(1);
+            root.addView(mCheckBox);
+            return root;
+        }
+
+        @Override
+        protected Animation getOnPushAnimation() {
+            return null;
+        }
+
+        @Override
+        protected Animation getOnPopAnimation() {
+            return null;
+        }
+    }
+}
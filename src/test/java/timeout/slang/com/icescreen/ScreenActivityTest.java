@@ -0,0 +1,118 @@
+package timeout.slang.com.icescreen;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ActivityController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ScreenActivity's lifecycle - the ScreenManager stays attached through an ordinary pause and is
+ * only let go once the Activity is going away
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ScreenActivityTest {
+
+    /*------------------------------------------------------------------------------------------
+     * Tests
+     ------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void pauseResumeKeepsManagerAttached() {
+        ActivityController<TestActivity> controller = Robolectric.buildActivity(TestActivity.class);
+        TestActivity activity = controller.create().start().resume().get();
+        ScreenManager manager = activity.mScreen.getScreenManager();
+
+        controller.pause().resume();
+
+        assertFalse(manager.isInConfigChange());
+        assertEquals(1, activity.mScreen.mCreated);
+        assertEquals(1, activity.mScreen.mActivations);
+    }
+
+    @Test
+    public void stopStartKeepsManagerAttached() {
+        ActivityController<TestActivity> controller = Robolectric.buildActivity(TestActivity.class);
+        TestActivity activity = controller.create().start().resume().get();
+        ScreenManager manager = activity.mScreen.getScreenManager();
+
+        controller.pause().stop().start().resume();
+
+        assertFalse(manager.isInConfigChange());
+        assertEquals(1, activity.mScreen.mCreated);
+    }
+
+    @Test
+    public void finishingDetachesManager() {
+        ActivityController<TestActivity> controller = Robolectric.buildActivity(TestActivity.class);
+        TestActivity activity = controller.create().start().resume().get();
+        ScreenManager manager = activity.mScreen.getScreenManager();
+
+        activity.finish();
+        controller.pause();
+
+        assertTrue(manager.isInConfigChange());
+    }
+
+    @Test
+    public void destroyDetachesManager() {
+        ActivityController<TestActivity> controller = Robolectric.buildActivity(TestActivity.class);
+        TestActivity activity = controller.create().start().resume().get();
+        ScreenManager manager = activity.mScreen.getScreenManager();
+
+        controller.pause().stop().destroy();
+
+        assertTrue(manager.isInConfigChange());
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: TestActivity
+     *
+     * Description:
+     * Starts with a single TestScreen
+     ------------------------------------------------------------------------------------------*/
+
+    public static class TestActivity extends ScreenActivity {
+
+        private final TestScreen mScreen = new TestScreen();
+
+        @Override
+        protected void onInitialiseScreenManager(ScreenManager screenMan) {
+            screenMan.pushScreen(mScreen);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: TestScreen
+     *
+     * Description:
+     * Screen with an empty layout that counts how often it's inflated and made active
+     ------------------------------------------------------------------------------------------*/
+
+    public static class TestScreen extends ScreenController {
+
+        int mCreated;
+        int mActivations;
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            mCreated++;
+            return new FrameLayout(inflater.getContext());
+        }
+
+        @Override
+        protected void onSetActive() {
+            mActivations++;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package timeout.slang.com.icescreen;
+
+import android.view.LayoutInflater;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ScreenControllerService with real workers, delivering through a HeadlessScreenHost. Results only
+ * reach main when the test runs the host's pending work
+ */
+public class ScreenControllerServiceTest {
+
+    /*------------------------------------------------------------------------------------------
+     * Constants
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Longest we wait on a worker before failing
+     */
+    private static final long TIMEOUT_MS = 5000;
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private HeadlessScreenHost mHost;
+
+    private ScreenControllerManager mManager;
+
+    /*------------------------------------------------------------------------------------------
+     * Set up
+     ------------------------------------------------------------------------------------------*/
+
+    @Before
+    public void setUp() {
+        mHost = new HeadlessScreenHost();
+        mManager = new ScreenControllerManager();
+        mManager.onContextChange(mHost);
+        mManager.initialise();
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Tests
+     ------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void resultDeliveredOnMain() throws Exception {
+        TestScreen screen = new TestScreen();
+        mManager.pushScreen(screen);
+
+        TestTask task = new TestTask();
+        mManager.getService().submit(screen, task);
+        task.mRelease.countDown();
+        runUntilPosted();
+
+        assertEquals("done", task.mResult);
+        assertTrue(task.mDeliveredOnMain);
+    }
+
+    /**
+     * Popping a screen cancels its running task and what it returns is never delivered
+     */
+    @Test
+    public void cancelledOnPop() throws Exception {
+        TestScreen first = new TestScreen();
+        TestScreen second = new TestScreen();
+        mManager.pushScreen(first);
+        mManager.pushScreen(second);
+
+        TestTask task = new TestTask();
+        mManager.getService().submit(second, task);
+        assertTrue(task.mStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        mManager.popScreen();
+        task.mRelease.countDown();
+        assertTrue(task.mFinished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // Give a delivery every chance to arrive
+        Thread.sleep(50);
+        mHost.runPending();
+
+        assertTrue(task.isCancelled());
+        assertNull(task.mResult);
+    }
+
+    /**
+     * A result that completes while there's no context waits for the next one
+     */
+    @Test
+    public void deliveryHeldWhileInConfigChange() throws Exception {
+        TestScreen screen = new TestScreen();
+        mManager.pushScreen(screen);
+        TestTask task = new TestTask();
+        mManager.getService().submit(screen, task);
+
+        mManager.onPreContextChange();
+        assertTrue(mManager.isInConfigChange());
+        task.mRelease.countDown();
+        runUntilPosted();
+        mHost.runPending();
+        assertNull(task.mResult);
+
+        mManager.onContextChange(mHost);
+        mHost.runPending();
+
+        assertEquals("done", task.mResult);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /*
+     * Run the host until the worker's post to main has been handled
+     */
+    private void runUntilPosted() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while(mHost.runPending() == 0) {
+            assertTrue("Nothing was posted back to main", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: TestTask
+     *
+     * Description:
+     * Task that waits to be released and returns "done", records where its result arrived
+     ------------------------------------------------------------------------------------------*/
+
+    private class TestTask extends ScreenControllerService.Task<String> {
+
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        final CountDownLatch mFinished = new CountDownLatch(1);
+
+        volatile String mResult;
+        boolean mDeliveredOnMain;
+
+        @Override
+        protected String doInBackground() throws Exception {
+            mStarted.countDown();
+            try {
+                mRelease.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                return "done";
+            } finally {
+                mFinished.countDown();
+            }
+        }
+
+        @Override
+        protected void onResult(String result) {
+            mResult = result;
+            mDeliveredOnMain = mHost.isMainThread();
+        }
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: TestScreen
+     *
+     * Description:
+     * Screen that's never inflated - the headless host doesn't create views
+     ------------------------------------------------------------------------------------------*/
+
+    public static class TestScreen extends ScreenController {
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            throw new IllegalStateException("Headless screens aren't inflated");
+        }
+    }
+}
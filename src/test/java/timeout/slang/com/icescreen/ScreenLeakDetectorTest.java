@@ -0,0 +1,133 @@
+package timeout.slang.com.icescreen;
+
+import android.view.LayoutInflater;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * ScreenLeakDetector run through a HeadlessScreenHost. Views are created against the plain
+ * android.jar, they're only there to be held on to (or not) and never displayed
+ */
+public class ScreenLeakDetectorTest {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private HeadlessScreenHost mHost;
+
+    private ScreenControllerManager mManager;
+
+    private ScreenLeakDetector mDetector;
+
+    /**
+     * What the detector reported, one entry per leak
+     */
+    private final List<Object> mLeaked = new ArrayList<>();
+    private final List<ScreenController> mScreens = new ArrayList<>();
+    private final List<String> mPaths = new ArrayList<>();
+
+    /*------------------------------------------------------------------------------------------
+     * Set up
+     ------------------------------------------------------------------------------------------*/
+
+    @Before
+    public void setUp() {
+        mHost = new HeadlessScreenHost();
+        mManager = new ScreenControllerManager();
+        mManager.onContextChange(mHost);
+        mManager.initialise();
+
+        mDetector = new ScreenLeakDetector(new ScreenLeakDetector.Listener() {
+            public void onLeak(Object leaked, ScreenController screen, String fieldPath) {
+                mLeaked.add(leaked);
+                mScreens.add(screen);
+                mPaths.add(fieldPath);
+            }
+        }, 0);
+        mManager.setLeakDetector(mDetector);
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Tests
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * A popped screen that something else keeps alive is blamed through the field holding the view
+     */
+    @Test
+    public void poppedScreenHoldingViewReported() {
+        mManager.pushScreen(new HoldingScreen());
+        HoldingScreen screen = new HoldingScreen();
+        mManager.pushScreen(screen);
+        screen.mHolder = new Holder();
+        screen.mHolder.mHeader = new View(null);
+
+        // The test keeps the popped screen, and so its view, alive
+        mManager.popScreen();
+        mDetector.watch(mManager, mHost, null, screen.mHolder.mHeader);
+        mHost.runPending();
+
+        assertEquals(1, mLeaked.size());
+        assertSame(screen.mHolder.mHeader, mLeaked.get(0));
+        assertSame(screen, mScreens.get(0));
+        assertEquals("mHolder.mHeader", mPaths.get(0));
+    }
+
+    /**
+     * A view nothing holds on to is collected and nothing's reported
+     */
+    @Test
+    public void collectedViewNotReported() {
+        mManager.pushScreen(new HoldingScreen());
+        HoldingScreen screen = new HoldingScreen();
+        mManager.pushScreen(screen);
+        mManager.popScreen();
+
+        watchNewView();
+        mHost.runPending();
+
+        assertEquals(0, mLeaked.size());
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    /*
+     * Watch a view nothing else references, kept out of the test so no local holds it
+     */
+    private void watchNewView() {
+        mDetector.watch(mManager, mHost, null, new View(null));
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: HoldingScreen
+     *
+     * Description:
+     * Screen with a field a view can be left in, never inflated
+     ------------------------------------------------------------------------------------------*/
+
+    public static class HoldingScreen extends ScreenController {
+
+        Holder mHolder;
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            throw new IllegalStateException("Headless screens aren't inflated");
+        }
+    }
+
+    public static class Holder {
+
+        View mHeader;
+    }
+}
@@ -0,0 +1,192 @@
+package timeout.slang.com.icescreen;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.animation.Animation;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saving the stack into an instance state Bundle and restoring it in a new manager, as happens
+ * across process death. Robolectric so the Bundle is real
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ScreenPersistenceTest {
+
+    /*------------------------------------------------------------------------------------------
+     * Private Members
+     ------------------------------------------------------------------------------------------*/
+
+    private ScreenControllerManager mManager;
+
+    /*------------------------------------------------------------------------------------------
+     * Set up
+     ------------------------------------------------------------------------------------------*/
+
+    @Before
+    public void setUp() {
+        mManager = new ScreenControllerManager();
+        mManager.onContextChange(Robolectric.buildActivity(Activity.class).create().get());
+        mManager.initialise();
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Tests
+     ------------------------------------------------------------------------------------------*/
+
+    /**
+     * Every stack comes back in order with the one that was on screen still on screen. Only the
+     * top of the displayed stack is created up front, the rest as they're revealed
+     */
+    @Test
+    public void stacksRestoredInOrderAndLazily() {
+        mManager.pushScreen(new PersistedScreen(1));
+        mManager.pushScreen(new OtherScreen(2));
+        mManager.pushScreen(new PersistedScreen(3));
+        mManager.switchStack("tab");
+        mManager.pushScreen(new PersistedScreen(4));
+
+        Bundle saved = new Bundle();
+        mManager.saveState(saved);
+
+        PersistedScreen.sCreated = 0;
+        ScreenControllerManager restored = new ScreenControllerManager();
+        assertTrue(restored.restoreState(saved));
+        restored.onContextChange(Robolectric.buildActivity(Activity.class).create().get());
+        restored.initialise();
+
+        assertEquals("tab", restored.getStackName());
+        assertEquals(1, restored.getScreenCount());
+        assertEquals(1, PersistedScreen.sCreated);
+        assertEquals(4, valueOfTop(restored));
+
+        // Switching back creates the other stack's top, nothing under it
+        restored.switchStack(ScreenControllerManager.DEFAULT_STACK);
+        assertEquals(3, restored.getScreenCount());
+        assertEquals(2, PersistedScreen.sCreated);
+        assertEquals(3, valueOfTop(restored));
+
+        restored.popScreen();
+        assertEquals(3, PersistedScreen.sCreated);
+        assertTrue(restored.peekScreen() instanceof OtherScreen);
+        assertEquals(2, valueOfTop(restored));
+
+        restored.popScreen();
+        assertEquals(4, PersistedScreen.sCreated);
+        assertEquals(PersistedScreen.class, restored.peekScreen().getClass());
+        assertEquals(1, valueOfTop(restored));
+    }
+
+    /**
+     * The encoding keeps order, repeats of a class and which screens had data
+     */
+    @Test
+    public void stackStateRoundTrip() {
+        Bundle data = new Bundle();
+        data.putInt("value", 7);
+        ScreenStackState state = new ScreenStackState();
+        state.add("a.First", null);
+        state.add("a.Second", data);
+        state.add("a.First", new Bundle());
+
+        Bundle out = new Bundle();
+        state.writeTo(out);
+        ScreenStackState read = ScreenStackState.readFrom(out, getClass().getClassLoader());
+
+        assertEquals(3, read.size());
+        assertEquals("a.First", read.getClassName(0));
+        assertEquals("a.Second", read.getClassName(1));
+        assertEquals("a.First", read.getClassName(2));
+        assertNull(read.getData(0));
+        assertEquals(7, read.getData(1).getInt("value"));
+        assertNull(read.getData(2));
+    }
+
+    @Test
+    public void nothingToRestore() {
+        ScreenControllerManager restored = new ScreenControllerManager();
+
+        assertFalse(restored.restoreState(new Bundle()));
+        assertEquals(0, restored.getScreenCount());
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Private Methods
+     ------------------------------------------------------------------------------------------*/
+
+    private static int valueOfTop(ScreenControllerManager manager) {
+        return ((PersistedScreen) manager.peekScreen()).mValue;
+    }
+
+    /*------------------------------------------------------------------------------------------
+     * Class: PersistedScreen
+     *
+     * Description:
+     * Screen that saves a single value, counts how many instances have been created. No
+     * animations so transitions finish straight away
+     ------------------------------------------------------------------------------------------*/
+
+    public static class PersistedScreen extends ScreenController {
+
+        static int sCreated;
+
+        int mValue;
+
+        public PersistedScreen() {
+            sCreated++;
+        }
+
+        public PersistedScreen(int value) {
+            this();
+            mValue = value;
+        }
+
+        @Override
+        protected void onSaveState(ScreenControllerData data) {
+            data.getBundle().putInt("value", mValue);
+        }
+
+        @Override
+        protected void onRestoreState(ScreenControllerData data) {
+            mValue = data.getBundle().getInt("value");
+        }
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater) {
+            return new FrameLayout(inflater.getContext());
+        }
+
+        @Override
+        protected Animation getOnPushAnimation() {
+            return null;
+        }
+
+        @Override
+        protected Animation getOnPopAnimation() {
+            return null;
+        }
+    }
+
+    public static class OtherScreen extends PersistedScreen {
+
+        public OtherScreen() { }
+
+        public OtherScreen(int value) {
+            super(value);
+        }
+    }
+}